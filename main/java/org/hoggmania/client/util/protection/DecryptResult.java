@@ -0,0 +1,76 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+/**
+ * Container class for the outcome of decrypting one value of a batch, either
+ * the plain value or the error that stopped it being decrypted.
+ * 
+ * @author james.holland
+ * 
+ */
+public class DecryptResult {
+
+	private final EncryptedInfo	info;
+	private final byte[]		value;
+	private final Exception		error;
+
+	/**
+	 * @param info
+	 *            that was decrypted
+	 * @param value
+	 *            plain text (no encoding), null on failure
+	 * @param error
+	 *            why the value could not be decrypted, null on success
+	 */
+	public DecryptResult(EncryptedInfo info, byte[] value, Exception error) {
+		this.info = info;
+		this.value = value;
+		this.error = error;
+	}
+
+	/**
+	 * @return the encrypted value
+	 */
+	public EncryptedInfo getInfo() {
+		return info;
+	}
+
+	/**
+	 * @return plain text (no encoding), null if the decrypt failed
+	 */
+	public byte[] getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the reason the decrypt failed, null if it succeeded
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	public String toString() {
+		return this.getClass().getCanonicalName() + (isSuccess() ? " decrypted" : " failed=" + error) + " " + info;
+	}
+}
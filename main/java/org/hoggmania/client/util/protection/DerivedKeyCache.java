@@ -0,0 +1,398 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import javax.security.auth.DestroyFailedException;
+
+import com.migcomponents.migbase64.Base64;
+
+/**
+ * Process wide cache of the PBE keys derived by {@link PassphraseObfuscatorImp}.
+ * Entries are keyed by (PBE algorithm, provider, salt, iteration, password
+ * fingerprint) so the password itself is never used as a map key.<br>
+ * With the JCE PBE schemes the iterated derivation is done when the
+ * {@link Cipher} is initialised, so each entry also keeps the initialised
+ * ciphers ready for reuse. A parameter set therefore pays the derivation
+ * cost once per concurrent caller rather than once per secret.<br>
+ * The cache is bounded by the system options (-D): -
+ * <li>PWB_KEY_CACHE_SIZE maximum number of entries (default 64)</li>
+ * <li>PWB_KEY_CACHE_TTL time to live of an entry in milliseconds (default
+ * 3600000, 0 or less never expires)</li>
+ * <li>PWB_KEY_CACHE_CIPHERS initialised ciphers kept per entry and mode
+ * (default the number of processors), each one costs a derivation and is
+ * only created when every other one is in use</li>
+ * Entries leaving the cache are destroyed.
+ *
+ * @author james.holland
+ *
+ */
+public final class DerivedKeyCache {
+
+	public static final String	PWB_KEY_CACHE_SIZE	= "PWB_KEY_CACHE_SIZE";
+	public static final String	PWB_KEY_CACHE_TTL	= "PWB_KEY_CACHE_TTL";
+	public static final String	PWB_KEY_CACHE_CIPHERS	= "PWB_KEY_CACHE_CIPHERS";
+
+	private static final int	MAX_ENTRIES			= Integer.getInteger(PWB_KEY_CACHE_SIZE, 64).intValue();
+	private static final long	TTL					= Long.getLong(PWB_KEY_CACHE_TTL, 3600000L).longValue();
+	private static final int	MAX_CIPHERS			= Math.max(1, Integer.getInteger(PWB_KEY_CACHE_CIPHERS, Runtime.getRuntime().availableProcessors()).intValue());
+
+	private static final Map<Key, DerivedKey> cache = new LinkedHashMap<Key, DerivedKey>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, DerivedKey> eldest) {
+			if (size() > MAX_ENTRIES) {
+				eldest.getValue().destroy();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private DerivedKeyCache() {
+	}
+
+	/**
+	 * Runs the value through a cipher initialised with the derived key for the
+	 * parameter set, deriving and caching the key if required.
+	 *
+	 * @param algorithm
+	 *            PBE algorithm
+	 * @param provider
+	 *            JCE provider of the key factory, null for the default
+	 * @param salt
+	 * @param iteration
+	 * @param password
+	 * @param cipher_type
+	 *            Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+	 * @param value
+	 * @return the encrypted or decrypted value
+	 * @throws Exception
+	 */
+	public static byte[] doFinal(final String algorithm, final String provider, final String salt, final int iteration,
+			final String password, final int cipher_type, final byte[] value) throws Exception {
+		return lookup(algorithm, provider, salt, iteration, password).doFinal(cipher_type, value);
+	}
+
+	/**
+	 * Decrypts the values with one derivation of the key for the parameter
+	 * set, a value that fails is reported without stopping the rest.
+	 *
+	 * @param algorithm
+	 *            PBE algorithm
+	 * @param provider
+	 *            JCE provider of the key factory, null for the default
+	 * @param salt
+	 * @param iteration
+	 * @param password
+	 * @param values
+	 *            encrypted values sharing the parameter set
+	 * @return a result per value in the same order
+	 * @throws Exception
+	 */
+	public static List<DecryptResult> decrypt(final String algorithm, final String provider, final String salt,
+			final int iteration, final String password, final List<EncryptedInfo> values) throws Exception {
+		return lookup(algorithm, provider, salt, iteration, password).decrypt(values);
+	}
+
+	/**
+	 * Finds or derives the key and borrows it, under the cache lock so an
+	 * eviction cannot destroy the key first.
+	 */
+	private static DerivedKey lookup(final String algorithm, final String provider, final String salt, final int iteration,
+			final String password) throws Exception {
+		Key key = new Key(algorithm, provider, salt, iteration, fingerprint(password));
+		DerivedKey derived;
+		synchronized (cache) {
+			derived = cache.get(key);
+			if (derived != null && derived.isExpired()) {
+				cache.remove(key);
+				derived.destroy();
+				derived = null;
+			}
+			if (derived == null) {
+				derived = new DerivedKey(algorithm, provider, salt, iteration, password);
+				cache.put(key, derived);
+			}
+			derived.borrow();
+		}
+		return derived;
+	}
+
+	/**
+	 * Removes and destroys the key for the parameter set, if cached, e.g. once
+	 * the entropy it was derived from has changed.
+	 *
+	 * @param algorithm
+	 *            PBE algorithm
+	 * @param provider
+	 *            JCE provider of the key factory, null for the default
+	 * @param salt
+	 * @param iteration
+	 * @param password
+	 * @throws Exception
+	 */
+	public static void remove(final String algorithm, final String provider, final String salt, final int iteration,
+			final String password) throws Exception {
+		Key key = new Key(algorithm, provider, salt, iteration, fingerprint(password));
+		synchronized (cache) {
+			DerivedKey derived = cache.remove(key);
+			if (derived != null) derived.destroy();
+		}
+	}
+
+	/**
+	 * Removes and destroys every cached key.
+	 */
+	public static void clear() {
+		synchronized (cache) {
+			for (Iterator<DerivedKey> iterator = cache.values().iterator(); iterator.hasNext();) {
+				iterator.next().destroy();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return number of cached keys
+	 */
+	public static int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	private static String fingerprint(final String password) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		return Base64.encodeToString(md.digest(password.getBytes("UTF-8")), false);
+	}
+
+	/**
+	 * Cache key, holds only a fingerprint of the password
+	 */
+	private static final class Key {
+		private final String	algorithm, provider, salt, fingerprint;
+		private final int		iteration;
+
+		Key(String algorithm, String provider, String salt, int iteration, String fingerprint) {
+			this.algorithm = algorithm;
+			this.provider = provider;
+			this.salt = salt;
+			this.iteration = iteration;
+			this.fingerprint = fingerprint;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return iteration == other.iteration && algorithm.equals(other.algorithm) && salt.equals(other.salt)
+					&& fingerprint.equals(other.fingerprint)
+					&& (provider == null ? other.provider == null : provider.equals(other.provider));
+		}
+
+		@Override
+		public int hashCode() {
+			int result = algorithm.hashCode();
+			result = 31 * result + (provider == null ? 0 : provider.hashCode());
+			result = 31 * result + salt.hashCode();
+			result = 31 * result + iteration;
+			result = 31 * result + fingerprint.hashCode();
+			return result;
+		}
+	}
+
+	/**
+	 * A derived key and the ciphers initialised with it. The key is destroyed
+	 * once it has left the cache and no caller is still using it. Only one
+	 * cipher per mode is initialised at a time, callers arriving meanwhile
+	 * wait for it rather than deriving the key again.
+	 */
+	private static final class DerivedKey {
+		private final String				algorithm;
+		private final PBEParameterSpec		spec;
+		private final long					created	= System.currentTimeMillis();
+		private final ArrayDeque<Cipher>	encryptors	= new ArrayDeque<Cipher>();
+		private final ArrayDeque<Cipher>	decryptors	= new ArrayDeque<Cipher>();
+		private final int[]					ciphers		= new int[2];
+		private final boolean[]				deriving	= new boolean[2];
+		private SecretKey					key;
+		private int							borrowed;
+		private boolean						evicted;
+
+		DerivedKey(String algorithm, String provider, String salt, int iteration, String password) throws Exception {
+			this.algorithm = algorithm;
+			this.spec = new PBEParameterSpec(salt.getBytes(), iteration);
+			PBEKeySpec pbeKeySpec = new PBEKeySpec(password.toCharArray());
+			try {
+				SecretKeyFactory keyFac = null;
+				if (provider == null) {
+					keyFac = SecretKeyFactory.getInstance(algorithm);
+				} else {
+					keyFac = SecretKeyFactory.getInstance(algorithm, provider);
+				}
+				this.key = keyFac.generateSecret(pbeKeySpec);
+			} finally {
+				pbeKeySpec.clearPassword();
+			}
+		}
+
+		boolean isExpired() {
+			return TTL > 0 && System.currentTimeMillis() - created > TTL;
+		}
+
+		synchronized void borrow() {
+			borrowed++;
+		}
+
+		byte[] doFinal(int cipher_type, byte[] value) throws Exception {
+			try {
+				Cipher cipher = take(cipher_type);
+				boolean reusable = false;
+				try {
+					byte[] result = cipher.doFinal(value);
+					reusable = true;
+					return result;
+				} finally {
+					release(cipher_type, cipher, reusable);
+				}
+			} finally {
+				done();
+			}
+		}
+
+		List<DecryptResult> decrypt(List<EncryptedInfo> values) {
+			List<DecryptResult> results = new ArrayList<DecryptResult>(values.size());
+			try {
+				Cipher cipher = null;
+				for (EncryptedInfo info : values) {
+					try {
+						if (cipher == null) cipher = take(Cipher.DECRYPT_MODE);
+						results.add(new DecryptResult(info, cipher.doFinal(info.getBytes()), null));
+					} catch (Exception e) {
+						// The cipher may need to be re-initialised after a failure
+						if (cipher != null) release(Cipher.DECRYPT_MODE, cipher, false);
+						cipher = null;
+						results.add(new DecryptResult(info, null, e));
+					}
+				}
+				if (cipher != null) release(Cipher.DECRYPT_MODE, cipher, true);
+			} finally {
+				done();
+			}
+			return results;
+		}
+
+		/**
+		 * Takes a free cipher, waiting for one that is being initialised or in
+		 * use by another caller, and only initialises a new one when there is
+		 * no cipher for the mode.
+		 */
+		private Cipher take(int cipher_type) throws Exception {
+			int index = index(cipher_type);
+			synchronized (this) {
+				while (true) {
+					Cipher cipher = pool(cipher_type).poll();
+					if (cipher != null) return cipher;
+					if (ciphers[index] < MAX_CIPHERS && !deriving[index]) break;
+					wait();
+				}
+				ciphers[index]++;
+				deriving[index] = true;
+			}
+			boolean created = false;
+			try {
+				// Create PBE Cipher ready for use, this is where the key is derived
+				Cipher cipher = Cipher.getInstance(algorithm);
+				cipher.init(cipher_type, key, spec);
+				created = true;
+				return cipher;
+			} finally {
+				synchronized (this) {
+					deriving[index] = false;
+					if (!created) ciphers[index]--;
+					notifyAll();
+				}
+			}
+		}
+
+		private int index(int cipher_type) {
+			return cipher_type == Cipher.ENCRYPT_MODE ? 0 : 1;
+		}
+
+		private ArrayDeque<Cipher> pool(int cipher_type) {
+			return cipher_type == Cipher.ENCRYPT_MODE ? encryptors : decryptors;
+		}
+
+		private synchronized void release(int cipher_type, Cipher cipher, boolean reusable) {
+			if (reusable && !evicted) {
+				pool(cipher_type).offer(cipher);
+			} else {
+				ciphers[index(cipher_type)]--;
+			}
+			notifyAll();
+		}
+
+		private synchronized void done() {
+			borrowed--;
+			if (evicted && borrowed == 0) {
+				zeroize();
+			}
+		}
+
+		synchronized void destroy() {
+			evicted = true;
+			ciphers[0] -= encryptors.size();
+			ciphers[1] -= decryptors.size();
+			encryptors.clear();
+			decryptors.clear();
+			notifyAll();
+			if (borrowed == 0) {
+				zeroize();
+			}
+		}
+
+		private void zeroize() {
+			if (key != null) {
+				try {
+					key.destroy();
+				} catch (DestroyFailedException e) {
+					// Not every provider supports destroying its keys
+				}
+				key = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+
+/**
+ * Accumulates the entropy in one pass without holding it. The characters are
+ * encoded with the platform charset, as String.getBytes() does, into the salt
+ * and password digests while their total and count are kept for the
+ * iteration. Memory use is constant whatever the size of the entropy.
+ * 
+ * @author james.holland
+ * 
+ */
+public final class EntropyDigest {
+
+	private static final int		BUFFER_SIZE	= 8192;
+
+	private final MessageDigest		salt, password;
+	private final CharsetEncoder	encoder		= Charset.defaultCharset().newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer		pending		= CharBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer		encoded		= ByteBuffer.allocate(BUFFER_SIZE * 4);
+	private int						count;
+	private long					length;
+	private boolean					blank		= true;
+	private boolean					finished;
+
+	EntropyDigest(MessageDigest salt, MessageDigest password) {
+		this.salt = salt;
+		this.password = password;
+	}
+
+	/**
+	 * Adds the characters as they are
+	 * 
+	 * @param entropy
+	 */
+	public void update(CharSequence entropy) {
+		update(CharBuffer.wrap(entropy), false);
+	}
+
+	/**
+	 * Adds the remaining characters of the buffer
+	 * 
+	 * @param entropy
+	 * @param skipLineBreaks
+	 *            true to drop carriage returns and line feeds, as reading
+	 *            the entropy line by line would
+	 */
+	public void update(CharBuffer entropy, boolean skipLineBreaks) {
+		if (finished) throw new IllegalStateException("Entropy digest already finished");
+		while (entropy.hasRemaining()) {
+			char c = entropy.get();
+			if (skipLineBreaks && (c == '\n' || c == '\r')) continue;
+			count += c;
+			length++;
+			if (c > ' ') blank = false;
+			pending.put(c);
+			if (!pending.hasRemaining()) drain(false);
+		}
+	}
+
+	/**
+	 * Discards everything added so far
+	 */
+	public void reset() {
+		salt.reset();
+		password.reset();
+		encoder.reset();
+		pending.clear();
+		encoded.clear();
+		count = 0;
+		length = 0;
+		blank = true;
+		finished = false;
+	}
+
+	/**
+	 * @return true if nothing but white space has been added
+	 */
+	public boolean isBlank() {
+		return blank;
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * Encodes anything still pending, after this the digests hold the whole
+	 * entropy
+	 */
+	void finish() {
+		if (!finished) {
+			drain(true);
+			encoder.flush(encoded);
+			digest();
+			finished = true;
+		}
+	}
+
+	MessageDigest getSaltDigest() {
+		finish();
+		return salt;
+	}
+
+	MessageDigest getPasswordDigest() {
+		finish();
+		return password;
+	}
+
+	private void drain(boolean endOfInput) {
+		pending.flip();
+		while (true) {
+			CoderResult result = encoder.encode(pending, encoded, endOfInput);
+			digest();
+			if (!result.isOverflow()) break;
+		}
+		// Keeps an unpaired high surrogate for the next characters
+		pending.compact();
+	}
+
+	private void digest() {
+		encoded.flip();
+		salt.update(encoded.duplicate());
+		password.update(encoded);
+		encoded.clear();
+	}
+}
@@ -0,0 +1,64 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A source of machine entropy, e.g. the MAC addresses, a file or an
+ * environment variable. Sources are looked up by name through
+ * {@link EntropySources}, further sources are found with
+ * {@link java.util.ServiceLoader} from
+ * <code>META-INF/services/org.hoggmania.client.util.protection.EntropySource</code>.
+ * The value read is shared JVM wide between every adapter using the same
+ * parameters, so a source is read once and must be safe to call from many
+ * threads.
+ * 
+ * @author james.holland
+ * 
+ */
+public interface EntropySource {
+
+	/**
+	 * @return the name used in PWB_ENTROPY_SOURCES, e.g. mac
+	 */
+	String getName();
+
+	/**
+	 * @return the parameters the value depends on, the shared value is kept
+	 *         per distinct set of them
+	 */
+	Collection<String> getParameterNames();
+
+	/**
+	 * Reads the entropy
+	 * 
+	 * @param parameters
+	 *            the adapter parameters
+	 * @param files
+	 *            add the files read, the value is read again once one of
+	 *            them changes
+	 * @return the entropy, empty or null when none is found
+	 * @throws Exception
+	 */
+	String getEntropy(Map<String, String> parameters, List<File> files) throws Exception;
+}
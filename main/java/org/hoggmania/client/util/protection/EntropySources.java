@@ -0,0 +1,188 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hoggmania.client.util.protection.utils.EntropyFileWatcher;
+import org.hoggmania.client.util.protection.utils.EnvEntropySource;
+import org.hoggmania.client.util.protection.utils.FileEntropySource;
+import org.hoggmania.client.util.protection.utils.FindNetworkEntropy;
+import org.hoggmania.client.util.protection.utils.MacEntropySource;
+import org.hoggmania.client.util.protection.utils.MachineEntropySource;
+import org.hoggmania.client.util.protection.utils.SingleFlight;
+import org.hoggmania.client.util.protection.utils.UrlEntropySource;
+
+/**
+ * Registry of the {@link EntropySource}s and the JVM wide snapshot of the
+ * values they read. The built in sources are: -
+ * <li>mac the MAC addresses, see
+ * {@link org.hoggmania.client.util.protection.utils.FindNetworkEntropy}</li>
+ * <li>machine-id /etc/machine-id and /sys/class/net, see
+ * {@link PassphraseObfuscatorMachine}</li>
+ * <li>file the file PWB_ENTROPY_FILE</li>
+ * <li>url the file or website PWB_URL</li>
+ * <li>env the environment variables listed in PWB_ENTROPY_ENV</li>
+ * Sources found by {@link ServiceLoader} are added, replacing a built in
+ * source of the same name. A value is read once per source and parameters,
+ * concurrent callers share the read, and is kept until a file it was read
+ * from changes or {@link #refresh()} is called.
+ * 
+ * @author james.holland
+ * 
+ */
+public final class EntropySources {
+
+	public static final String	PWB_ENTROPY_SOURCES	= "PWB_ENTROPY_SOURCES";
+
+	private static final Map<String, EntropySource>						sources		= load();
+	private static final ConcurrentHashMap<List<Object>, Snapshot>	snapshots	= new ConcurrentHashMap<List<Object>, Snapshot>();
+	private static final SingleFlight<List<Object>, Snapshot>			reads		= new SingleFlight<List<Object>, Snapshot>();
+
+	private EntropySources() {
+	}
+
+	private static Map<String, EntropySource> load() {
+		Map<String, EntropySource> map = new LinkedHashMap<String, EntropySource>();
+		for (EntropySource source : new EntropySource[] { new MacEntropySource(), new MachineEntropySource(),
+				new FileEntropySource(), new UrlEntropySource(), new EnvEntropySource() }) {
+			map.put(source.getName(), source);
+		}
+		Iterator<EntropySource> found = ServiceLoader.load(EntropySource.class, EntropySources.class.getClassLoader()).iterator();
+		while (true) {
+			try {
+				if (!found.hasNext()) break;
+				EntropySource source = found.next();
+				map.put(source.getName(), source);
+			} catch (ServiceConfigurationError e) {
+				System.out.println("Cannot load entropy source: " + e.getMessage());
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * @return the names of the available sources
+	 */
+	public static Set<String> getNames() {
+		return sources.keySet();
+	}
+
+	/**
+	 * @param name
+	 * @return the source
+	 * @throws RuntimeException
+	 *             when there is no source of the name
+	 */
+	public static EntropySource getSource(String name) {
+		EntropySource source = sources.get(name);
+		if (source == null)
+			throw new RuntimeException("Unknown entropy source " + name + ", available are " + sources.keySet());
+		return source;
+	}
+
+	/**
+	 * Returns the shared value of the source for the parameters, reading it
+	 * if required.
+	 * 
+	 * @param name
+	 *            of the source
+	 * @param parameters
+	 *            the adapter parameters
+	 * @param files
+	 *            the files the value was read from are added, may be null
+	 * @return the entropy, empty when none was found
+	 * @throws Exception
+	 */
+	public static String getEntropy(String name, final Map<String, String> parameters, List<File> files) throws Exception {
+		final EntropySource source = getSource(name);
+		Map<String, String> selected = new TreeMap<String, String>();
+		if (parameters != null) {
+			for (String parameter : source.getParameterNames()) {
+				String value = parameters.get(parameter);
+				if (value != null) selected.put(parameter, value);
+			}
+		}
+		final List<Object> key = Arrays.<Object>asList(name, selected);
+
+		Snapshot snapshot = snapshots.get(key);
+		if (snapshot == null) {
+			snapshot = reads.execute(key, new Callable<Snapshot>() {
+				public Snapshot call() throws Exception {
+					Snapshot current = snapshots.get(key);
+					if (current != null) return current;
+					List<File> read = new ArrayList<File>();
+					String value = source.getEntropy(parameters, read);
+					current = new Snapshot(value == null ? "" : value, read);
+					snapshots.put(key, current);
+					if (source instanceof MacEntropySource) {
+						FindNetworkEntropy.register(key, new Runnable() {
+							public void run() {
+								snapshots.remove(key);
+							}
+						});
+					}
+					for (File file : read) {
+						EntropyFileWatcher.register(file, key, new Runnable() {
+							public void run() {
+								snapshots.remove(key);
+							}
+						});
+					}
+					return current;
+				}
+			});
+		}
+		if (files != null) files.addAll(snapshot.files);
+		return snapshot.value;
+	}
+
+	/**
+	 * Forgets every value, they are read again on next use
+	 */
+	public static void refresh() {
+		snapshots.clear();
+	}
+
+	/**
+	 * A value and the files it was read from
+	 */
+	private static final class Snapshot {
+		private final String		value;
+		private final List<File>	files;
+
+		Snapshot(String value, List<File> files) {
+			this.value = value;
+			this.files = Collections.unmodifiableList(files);
+		}
+	}
+}
@@ -18,10 +18,14 @@
 */
 package org.hoggmania.client.util.protection;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Definition of a password encryption interface
+ * Definition of a password encryption interface. Once initialised an
+ * implementation is shared by {@link PassphraseObfuscatorFactory}, so encrypt
+ * and decrypt must be safe to call from many threads.
  * 
  * @author james.holland
  * 
@@ -66,6 +70,26 @@ public interface ObfuscatorInf {
 	 */
 	byte[] decrypt(final EncryptedInfo encrypted_value) throws Exception;
 
+	/**
+	 * Decrypt many secrets, implementations should share the key derivation
+	 * between secrets with the same parameters. A failure is reported against
+	 * the secret and does not stop the rest being decrypted.
+	 * 
+	 * @param encrypted_values
+	 * @return a result per secret in the same order
+	 */
+	default List<DecryptResult> decryptBatch(final List<EncryptedInfo> encrypted_values) {
+		List<DecryptResult> results = new ArrayList<DecryptResult>(encrypted_values.size());
+		for (EncryptedInfo info : encrypted_values) {
+			try {
+				results.add(new DecryptResult(info, decrypt(info), null));
+			} catch (Exception e) {
+				results.add(new DecryptResult(info, null, e));
+			}
+		}
+		return results;
+	}
+
 	
 	/**
 	 * Returns the Initialisation Parameters used.
@@ -18,16 +18,39 @@
 */
 package org.hoggmania.client.util.protection;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
 
 
 /**
- * Factory and utility class to encrypt/decrypt a secret
+ * Factory and utility class to encrypt/decrypt a secret. <br>
+ * Adapters are initialised once and kept in a registry keyed by the
+ * implementation code and the normalised parameters, so repeated lookups
+ * return the same ready to use instance. The returned adapters are shared and
+ * must not be re-initialised by the caller.
  * 
  * @author james.holland
  */
 public class PassphraseObfuscatorFactory {
 
+	private static final ConcurrentHashMap<AdapterKey, ObfuscatorInf> registry = new ConcurrentHashMap<AdapterKey, ObfuscatorInf>();
+
+	// Codes written by the built in implementations, others are added as they are used or registered
+	private static final Set<String> codes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	static {
+		codes.addAll(Arrays.asList(PassphraseObfuscatorURL.class.getCanonicalName(), PassphraseObfuscatorHash.class.getCanonicalName(),
+				PassphraseObfuscatorGCM.class.getCanonicalName(), PassphraseObfuscatorMachine.class.getCanonicalName(),
+				PassphraseObfuscatorSources.class.getCanonicalName(), ObfuscatePlain.class.getCanonicalName()));
+	}
+
 	/**
 	 * Retrieves, instantiates the adapter instance. If no
 	 * implementation class is specified in the map the following selection
@@ -41,7 +64,6 @@ public class PassphraseObfuscatorFactory {
 	 * @return instance of a PassphraseObfuscatorInf implementation
 	 */
 	public static final ObfuscatorInf getAdapter(Map<String, String> map) throws Exception {
-		ObfuscatorInf inf = null;
 		String tmp = null;
 		String clazz = null;
 		if (map != null) {
@@ -49,22 +71,10 @@ public class PassphraseObfuscatorFactory {
 			if (tmp != null && tmp.trim().length() != 0)
 				clazz = tmp.trim();
 		}
-		if (clazz != null && clazz.length() > 0) {
-			try {
-				Class<?> callbackClass = Class.forName(clazz);
-				inf = (ObfuscatorInf) callbackClass.newInstance();
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
-			} catch (InstantiationException e) {
-				e.printStackTrace();
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
-			}
-		} else {
+		if (clazz == null || clazz.length() == 0) {
 			throw new Exception("No recognisable ["+tmp+"] ObfuscatorInf defined in map entry "+ ObfuscatorInf.PWB_IMPLEMENTATION);
 		}
-		inf.initializeParameters(map);
-		return inf;
+		return lookup(clazz, map);
 	}
 	
 	
@@ -86,17 +96,125 @@ public class PassphraseObfuscatorFactory {
 		if(info.getCode() == null || info.getCode().trim().length() ==0) {
 			return getAdapter(info.getParameters());
 		}
-		String clazz = info.getCode().trim();
+		return lookup(info.getCode().trim(), info.getParameters());
+	}
 
-		
+	/**
+	 * Removes every adapter from the registry, they are re-created on the next
+	 * lookup.
+	 */
+	public static void invalidate() {
+		registry.clear();
+	}
+
+	/**
+	 * Removes the adapters of an implementation from the registry.
+	 * 
+	 * @param code
+	 *            of the implementation
+	 */
+	public static void invalidate(String code) {
+		if (code == null) return;
+		for (Iterator<AdapterKey> iterator = registry.keySet().iterator(); iterator.hasNext();) {
+			if (iterator.next().code.equals(code.trim())) iterator.remove();
+		}
+	}
+
+	/**
+	 * Registers the code of an implementation outside this library, so
+	 * obfuscated values written by it are recognised in text, see
+	 * {@link #getCodes()}
+	 * 
+	 * @param code
+	 *            of the implementation, its class name
+	 */
+	public static void registerCode(String code) {
+		if (code != null && code.trim().length() > 0) codes.add(code.trim());
+	}
+
+	/**
+	 * @return the implementation codes known, the built in implementations,
+	 *         those registered and those an adapter has been created for
+	 */
+	public static Set<String> getCodes() {
+		return Collections.unmodifiableSet(new TreeSet<String>(codes));
+	}
+
+	/**
+	 * @param code
+	 * @return true when the code is one of {@link #getCodes()}
+	 */
+	public static boolean isCode(String code) {
+		return code != null && codes.contains(code.trim());
+	}
+
+	private static ObfuscatorInf lookup(final String clazz, final Map<String, String> map) throws Exception {
+		AdapterKey key = new AdapterKey(clazz, ObfuscateSecretsHelper.normalizeParameters(map));
+		ObfuscatorInf inf = registry.get(key);
+		if (inf != null) return inf;
+		try {
+			return registry.computeIfAbsent(key, new Function<AdapterKey, ObfuscatorInf>() {
+				public ObfuscatorInf apply(AdapterKey k) {
+					try {
+						return newAdapter(clazz, map);
+					} catch (Exception e) {
+						throw new CreationException(e);
+					}
+				}
+			});
+		} catch (CreationException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+
+	private static ObfuscatorInf newAdapter(String clazz, Map<String, String> map) throws Exception {
 		@SuppressWarnings("unchecked")
 		Class<ObfuscatorInf> obj=(Class<ObfuscatorInf>) Class.forName(clazz);
 		
 		ObfuscatorInf inf = obj.newInstance();
 
-		inf.initializeParameters(info.getParameters());	
+		inf.initializeParameters(map);	
+		codes.add(clazz);
 		return inf;
 	}
 
+	/**
+	 * Registry key of implementation code and normalised parameters
+	 */
+	private static final class AdapterKey {
+		private final String				code;
+		private final Map<String, String>	parameters;
+
+		AdapterKey(String code, Map<String, String> parameters) {
+			this.code = code;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof AdapterKey))
+				return false;
+			AdapterKey other = (AdapterKey) obj;
+			return code.equals(other.code) && parameters.equals(other.parameters);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * code.hashCode() + parameters.hashCode();
+		}
+	}
+
+	/**
+	 * Carries a checked exception out of the registry creation function
+	 */
+	private static final class CreationException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		CreationException(Exception cause) {
+			super(cause);
+		}
+	}
 
 }
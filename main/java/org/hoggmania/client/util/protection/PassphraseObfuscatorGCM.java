@@ -0,0 +1,261 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+import org.hoggmania.client.util.protection.utils.SingleFlight;
+
+
+/**
+ * Obfuscate a secret/password using AES-GCM. A machine key is derived once
+ * with PBKDF2 from the same salt and password a {@link PassphraseObfuscatorImp}
+ * generates from the machine entropy, but with a fixed work factor instead of
+ * the entropy based iteration. Each secret is then sealed under a random
+ * nonce, so once the key is derived a decrypt is a single AES operation and a
+ * wrong machine is detected by the authentication tag. <br>
+ * The parameters are: -<br>
+ * <li>PWB_ENTROPY_IMPLEMENTATION the PassphraseObfuscatorImp to take the
+ * entropy from, by default {@link PassphraseObfuscatorURL}</li>
+ * <li>PWB_ALGORITM_KDF the key derivation, by default PBKDF2WithHmacSHA256</li>
+ * <li>PWB_KDF_ITERATION the work factor, by default 100000</li>
+ * <li>PWB_PROVIDER the JCE provider of the key derivation</li>
+ * The remaining parameters are passed to the entropy implementation. <br>
+ * The obfuscated bytes are <code>nonce(12 bytes) + cipher text + tag</code><br>
+ * A value sealed with other parameters than the adapter's is opened with the
+ * settings cached for its parameters, bounded by PWB_KEY_CACHE_SIZE as the
+ * {@link DerivedKeyCache}, so its key is not derived again for every value.
+ * 
+ * @author james.holland
+ * 
+ */
+public class PassphraseObfuscatorGCM implements ObfuscatorInf {
+
+	public static final String	PWB_ENTROPY_IMPLEMENTATION	= "PWB_ENTROPY_IMPLEMENTATION";
+	public static final String	PWB_ALGORITM_KDF			= "PWB_ALGORITM_KDF";
+	public static final String	PWB_KDF_ITERATION			= "PWB_KDF_ITERATION";
+
+	public static final String	ENTROPY_DEFAULT			= PassphraseObfuscatorURL.class.getName();
+	public static final String	KDF_DEFAULT				= "PBKDF2WithHmacSHA256";
+	public static final int		KDF_ITERATION_DEFAULT	= 100000;
+
+	private static final String	CIPHER			= "AES/GCM/NoPadding";
+	private static final int	NONCE_LENGTH	= 12;
+	private static final int	TAG_LENGTH		= 128;
+	private static final int	KEY_LENGTH		= 256;
+
+	private static final SecureRandom	random		= new SecureRandom();
+
+	private static final SingleFlight<Map<String, String>, MachineKey>	derivations	= new SingleFlight<Map<String, String>, MachineKey>();
+
+	private static final int	MAX_SETTINGS	= Integer.getInteger(DerivedKeyCache.PWB_KEY_CACHE_SIZE, 64).intValue();
+
+	// Settings of the values sealed with other parameters, by normalized parameters
+	private static final Map<Map<String, String>, Settings> others = new LinkedHashMap<Map<String, String>, Settings>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Map<String, String>, Settings> eldest) {
+			return size() > MAX_SETTINGS;
+		}
+	};
+
+	private volatile Settings			settings	= new Settings(null);
+
+	public void initializeParameters(Map<String, String> map) throws Exception {
+		this.settings = new Settings(map);
+	}
+
+	public Map<String, String> getInitializeParameters() {
+		return settings.map;
+	}
+
+	/**
+	 * Seals a secret under a random nonce
+	 * 
+	 * @param value
+	 * @return nonce and sealed value
+	 */
+	public EncryptedInfo encrypt(byte[] value) throws Exception {
+		Settings s = this.settings;
+		byte[] nonce = new byte[NONCE_LENGTH];
+		random.nextBytes(nonce);
+		Cipher cipher = Cipher.getInstance(CIPHER);
+		cipher.init(Cipher.ENCRYPT_MODE, getKey(s), new GCMParameterSpec(TAG_LENGTH, nonce));
+		cipher.updateAAD(getCode());
+
+		byte[] result = new byte[NONCE_LENGTH + cipher.getOutputSize(value.length)];
+		System.arraycopy(nonce, 0, result, 0, NONCE_LENGTH);
+		int length = cipher.doFinal(value, 0, value.length, result, NONCE_LENGTH);
+		if (NONCE_LENGTH + length != result.length) result = Arrays.copyOf(result, NONCE_LENGTH + length);
+		return new EncryptedInfo(result, this.getClass().getCanonicalName(), s.map);
+	}
+
+	/**
+	 * Opens a sealed secret
+	 * 
+	 * @param encrypted_value
+	 * @return byte[] plain text (no encoding)
+	 */
+	public byte[] decrypt(EncryptedInfo encrypted_value) throws Exception {
+		if (encrypted_value == null) {
+			throw new RuntimeException("Encrypted container is null");
+		}
+		byte[] bytes = encrypted_value.getBytes();
+		if (bytes.length <= NONCE_LENGTH) {
+			throw new RuntimeException("Encrypted value is null");
+		}
+		Settings s = this.settings;
+		if (!s.matches(encrypted_value.getParameters())) s = getSettings(encrypted_value.getParameters());
+
+		Cipher cipher = Cipher.getInstance(CIPHER);
+		cipher.init(Cipher.DECRYPT_MODE, getKey(s), new GCMParameterSpec(TAG_LENGTH, bytes, 0, NONCE_LENGTH));
+		cipher.updateAAD(getCode());
+		return cipher.doFinal(bytes, NONCE_LENGTH, bytes.length - NONCE_LENGTH);
+	}
+
+	/**
+	 * @return the cached settings of the parameters, the key derived for them
+	 *         is kept with the settings
+	 */
+	private static Settings getSettings(Map<String, String> map) {
+		Map<String, String> normalized = ObfuscateSecretsHelper.normalizeParameters(map);
+		synchronized (others) {
+			Settings s = others.get(normalized);
+			if (s == null) {
+				s = new Settings(map);
+				others.put(s.normalized, s);
+			}
+			return s;
+		}
+	}
+
+	private byte[] getCode() throws Exception {
+		return this.getClass().getCanonicalName().getBytes("UTF-8");
+	}
+
+	/**
+	 * Derives the machine key once per settings, concurrent callers for the
+	 * same parameters share one derivation. The key is derived again when the
+	 * salt or password of the entropy implementation has changed, e.g. after
+	 * its entropy file was replaced.
+	 */
+	private static SecretKey getKey(final Settings s) throws Exception {
+		MachineKey key = s.key;
+		if (key == null || !key.isCurrent()) {
+			key = derivations.execute(s.normalized, new Callable<MachineKey>() {
+				public MachineKey call() throws Exception {
+					MachineKey current = s.key;
+					return current == null || !current.isCurrent() ? deriveKey(s) : current;
+				}
+			});
+			s.key = key;
+		}
+		return key.key;
+	}
+
+	private static MachineKey deriveKey(final Settings s) throws Exception {
+		SecretKey key;
+		Map<String, String> entropyMap = new HashMap<String, String>();
+		if (s.map != null) entropyMap.putAll(s.map);
+		entropyMap.put(PWB_IMPLEMENTATION, s.entropy);
+		ObfuscatorInf inf = PassphraseObfuscatorFactory.getAdapter(entropyMap);
+		if (!(inf instanceof PassphraseObfuscatorImp))
+			throw new RuntimeException(s.entropy + " is not a " + PassphraseObfuscatorImp.class.getName());
+		PassphraseObfuscatorImp imp = (PassphraseObfuscatorImp) inf;
+
+		String salt = imp.generateSalt();
+		String password = imp.generatePassword();
+		PBEKeySpec spec = new PBEKeySpec(ObfuscateSecretsHelper.stripToASCII(password).toCharArray(),
+				ObfuscateSecretsHelper.stripToASCII(salt).getBytes(), s.iteration, KEY_LENGTH);
+		byte[] encoded = null;
+		try {
+			SecretKeyFactory keyFac = null;
+			if (s.provider == null) {
+				keyFac = SecretKeyFactory.getInstance(s.kdf);
+			} else {
+				keyFac = SecretKeyFactory.getInstance(s.kdf, s.provider);
+			}
+			encoded = keyFac.generateSecret(spec).getEncoded();
+			key = new SecretKeySpec(encoded, "AES");
+		} finally {
+			spec.clearPassword();
+			if (encoded != null) Arrays.fill(encoded, (byte) 0);
+		}
+		return new MachineKey(imp, salt, password, key);
+	}
+
+	/**
+	 * The key and the entropy values it was derived from
+	 */
+	private static final class MachineKey {
+		private final PassphraseObfuscatorImp	imp;
+		private final String					salt, password;
+		private final SecretKey					key;
+
+		MachineKey(PassphraseObfuscatorImp imp, String salt, String password, SecretKey key) {
+			this.imp = imp;
+			this.salt = salt;
+			this.password = password;
+			this.key = key;
+		}
+
+		boolean isCurrent() throws Exception {
+			return salt.equals(imp.generateSalt()) && password.equals(imp.generatePassword());
+		}
+	}
+
+	/**
+	 * Immutable snapshot of the initialisation parameters
+	 */
+	private static final class Settings {
+		private final Map<String, String>	map;
+		private final Map<String, String>	normalized;
+		private final String				entropy, kdf, provider;
+		private final int					iteration;
+		private volatile MachineKey			key;
+
+		Settings(Map<String, String> map) {
+			this.map = map == null ? null : Collections.unmodifiableMap(new LinkedHashMap<String, String>(map));
+			this.normalized = ObfuscateSecretsHelper.normalizeParameters(map);
+			this.entropy = ObfuscateSecretsHelper.getMapValue(map, PWB_ENTROPY_IMPLEMENTATION, ENTROPY_DEFAULT, false);
+			this.kdf = ObfuscateSecretsHelper.getMapValue(map, PWB_ALGORITM_KDF, KDF_DEFAULT, false);
+			this.provider = ObfuscateSecretsHelper.getMapValue(map, PWB_PROVIDER, null, true);
+			this.iteration = Integer.parseInt(ObfuscateSecretsHelper.getMapValue(map, PWB_KDF_ITERATION, String.valueOf(KDF_ITERATION_DEFAULT), false));
+		}
+
+		boolean matches(Map<String, String> other) {
+			return normalized.equals(ObfuscateSecretsHelper.normalizeParameters(other));
+		}
+	}
+}
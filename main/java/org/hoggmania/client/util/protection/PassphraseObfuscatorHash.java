@@ -20,6 +20,7 @@ package org.hoggmania.client.util.protection;
 
 import org.hoggmania.client.util.protection.ObfuscatorInf;
 import org.hoggmania.client.util.protection.utils.FindNetworkEntropy;
+import org.hoggmania.client.util.protection.utils.MacEntropySource;
 
 
 /**
@@ -44,14 +45,14 @@ import org.hoggmania.client.util.protection.utils.FindNetworkEntropy;
  */
 public class PassphraseObfuscatorHash extends PassphraseObfuscatorImp implements ObfuscatorInf {
 
-	String entropy = null;
-	
-	protected final String findEntropy() {	
-		if (entropy == null) {
-			entropy = FindNetworkEntropy.getNetworkEntropy().replaceAll("-", "").replaceAll(":", "");
-			if (entropy == null || entropy.trim().length() == 0)
-				throw new RuntimeException("Cannot get local information to generate password");
-		}
+	/**
+	 * The network entropy is read by the mac {@link EntropySource}, memoized
+	 * JVM wide by {@link FindNetworkEntropy}
+	 */
+	protected final String findEntropy(Parameters parameters) throws Exception {	
+		String entropy = readSources(parameters, MacEntropySource.NAME);
+		if (entropy.trim().length() == 0)
+			throw new RuntimeException("Cannot get local information to generate password");
 		return entropy;
 	}
 
@@ -18,11 +18,19 @@
 */
 package org.hoggmania.client.util.protection;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -40,26 +48,33 @@ import com.migcomponents.migbase64.Base64;
 
 
 /**
- * Implementation to abstract duplicate work on obfuscation of secrets
+ * Implementation to abstract duplicate work on obfuscation of secrets. <br>
+ * The configuration is held in an immutable {@link Parameters} snapshot that
+ * is built once by {@link #initializeParameters(Map)}, encrypt and decrypt
+ * never change the instance so one adapter can be shared between threads.
+ * The values derived from the entropy are kept per implementation and
+ * parameters until a file the entropy was read from changes, see
+ * {@link #dependsOn(Parameters, File)}.
  * 
  * @author james.holland
  * 
  */
 public abstract class PassphraseObfuscatorImp implements ObfuscatorInf {
 
-	protected Map<String, String>	map				= null;
-	protected String				provider		= null;
-	protected String				algorithm_hash	= null;
-	protected String				algorithm_pbe	= null;
-	
-	private String	salt, password, entropy, username, userhome;
-	private int		count	= 0;
+	private static final SingleFlight<List<Object>, Derived> derivations = new SingleFlight<List<Object>, Derived>();
+	private static final ConcurrentHashMap<List<Object>, Derived> derived = new ConcurrentHashMap<List<Object>, Derived>();
+	private static final ConcurrentHashMap<List<Object>, Object> pending = new ConcurrentHashMap<List<Object>, Object>();
+
+	private volatile Parameters	parameters	= new Parameters(getClass(), null);
 	
 	public static final String HASH_DEFAULT = "SHA-512";
 	public static final String PBE_DEFAULT = "PBEWithSHA1AndDESede";
 	
 
 	/**
+	 * Builds the configuration snapshot, this should be called once before the
+	 * instance is shared.
+	 * 
 	 * @param ALGORITM_PBE
 	 *            Standard JCE available PBE algorithms are: - <li>
 	 *            PBEWithSHA1AndDESede(default)</li> <li>PBEWithSHA1AndRC2_40</li>
@@ -71,83 +86,192 @@ public abstract class PassphraseObfuscatorImp implements ObfuscatorInf {
 	 * 
 	 */
 	public void initializeParameters(Map<String, String> map) throws Exception {		
-		//This is used to re-initial the obfuscater
-		this.provider		= null;
-		this.algorithm_hash	= null;
-		this.algorithm_pbe	= null;
-		this.map = map;
-		this.algorithm_pbe = ObfuscateSecretsHelper.getMapValue(map, PWB_ALGORITM_PBE, PBE_DEFAULT, false);
-		this.algorithm_hash = ObfuscateSecretsHelper.getMapValue(map, PWB_ALGORITM_HASH, HASH_DEFAULT, false);
-		this.provider = ObfuscateSecretsHelper.getMapValue(map, PWB_PROVIDER, null, true);
-		this.entropy = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_NETWORK_ENTROPY, null, true);
-		this.salt = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_SALT, null, true);
-		this.username = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_USERNAME, null, true);
-		this.userhome = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_USERHOME, null, true);
-		this.count = Integer.parseInt(ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_ITERATION, "0", true));
+		this.parameters = new Parameters(getClass(), map);
 	}
 
+	/**
+	 * @return the configuration snapshot in use
+	 */
+	protected final Parameters getParameters() {
+		return parameters;
+	}
 	
+	/**
+	 * Returns the snapshot to use for the parameters of an encrypted value,
+	 * the instance is not changed when they differ from its own.
+	 */
+	protected final Parameters getParameters(Map<String, String> map) {
+		Parameters current = this.parameters;
+		if (current.matches(map)) return current;
+		return new Parameters(getClass(), map);
+	}
+
 	protected String getEntropy() throws Exception {
-		if (entropy == null) {
-			entropy = findEntropy();
-		}
-		return entropy;
+		Parameters p = getParameters();
+		return p.entropy == null ? findEntropy(p) : p.entropy;
 	}
 	
-	abstract String findEntropy() throws Exception;
+	abstract String findEntropy(Parameters parameters) throws Exception;
+
+	/**
+	 * Adds the entropy to the digest, by default the result of
+	 * {@link #findEntropy(Parameters)}. Implementations reading a large source
+	 * should stream it in instead.
+	 * 
+	 * @param parameters
+	 * @param digest
+	 * @throws Exception
+	 */
+	protected void digestEntropy(Parameters parameters, EntropyDigest digest) throws Exception {
+		String entropy = findEntropy(parameters);
+		if (entropy != null) digest.update(entropy);
+	}
 	
 	protected final String generateSalt() throws Exception {
-		if (salt == null) {
-			MessageDigest md;
-			md = getDigest();
-			md.update(getEntropy().getBytes());
-			md.update(getUsername().getBytes());
-			salt = ObfuscateSecretsHelper.stripToASCII(Base64.encodeToString(md.digest(), true));
-			while (salt.length() < 8) salt += salt;
-			salt = salt.substring(0, 8);
-		}
-		return salt;
+		return derive(getParameters()).salt;
 	}
 
-
-	
 	protected final int generateIteration() throws Exception {
-		if (count == 0) {
-			for (int i = 0; i < getEntropy().length(); i++) {
-				count += getEntropy().charAt(i);
-			}
-		}
-		return count;
+		return derive(getParameters()).count;
 	}
 
-	
 	protected final String generatePassword() throws Exception {
-		if (password == null) {
-			String uhome = getUserhome();
-			if (uhome == null || uhome.trim().length() <= getEntropy().length() / 2)
-				uhome = getUsername();
-			MessageDigest md;
-			md = getDigest();
-			md.update(getEntropy().getBytes());
-			md.update(uhome.getBytes());
-			password = ObfuscateSecretsHelper.stripToASCII(Base64.encodeToString(md.digest(), true));
+		return derive(getParameters()).password;
+	}
+
+	/**
+	 * Works out the salt, iteration and password for the snapshot, the result
+	 * is kept for the implementation and parameters. Concurrent callers share
+	 * one computation, so the entropy is loaded once.
+	 */
+	private final Derived derive(final Parameters p) throws Exception {
+		Derived result = derived.get(p.fingerprint);
+		if (result == null) {
+			result = derivations.execute(p.fingerprint, new Callable<Derived>() {
+				public Derived call() throws Exception {
+					Derived current = derived.get(p.fingerprint);
+					if (current != null) return current;
+					Object token = new Object();
+					pending.put(p.fingerprint, token);
+					try {
+						current = compute(p);
+					} catch (Exception e) {
+						pending.remove(p.fingerprint, token);
+						throw e;
+					}
+					// Only kept when the entropy did not change while being read
+					if (pending.remove(p.fingerprint, token)) derived.put(p.fingerprint, current);
+					return current;
+				}
+			});
 		}
-		return password;
+		return result;
 	}
 
+	/**
+	 * Records that the values derived for the snapshot depend on the file,
+	 * they are dropped along with the cached key once the file changes. Call
+	 * before reading the file.
+	 * 
+	 * @param parameters
+	 * @param file
+	 *            the entropy is read from
+	 */
+	protected final void dependsOn(final Parameters parameters, File file) {
+		EntropyFileWatcher.register(file, parameters.fingerprint, new Runnable() {
+			public void run() {
+				invalidate(parameters);
+			}
+		});
+	}
 
+	/**
+	 * Records that the values derived for the snapshot depend on the MAC
+	 * addresses, they are dropped once a refresh finds the addresses changed.
+	 * 
+	 * @param parameters
+	 */
+	protected final void dependsOnNetwork(final Parameters parameters) {
+		FindNetworkEntropy.register(parameters.fingerprint, new Runnable() {
+			public void run() {
+				invalidate(parameters);
+			}
+		});
+	}
 
-	private String getUsername() {
-		if (username == null) username = System.getProperty("user.name");
-		return username;
+	/**
+	 * Reads the entropy of the named {@link EntropySource}s, concatenated in
+	 * order, from the snapshot shared by every adapter, see
+	 * {@link EntropySources}. The files read are watched by
+	 * {@link #dependsOn(Parameters, File)}, the MAC addresses by
+	 * {@link FindNetworkEntropy#register(Object, Runnable)}.
+	 * 
+	 * @param parameters
+	 * @param names
+	 *            of the sources
+	 * @return the entropy, empty when none was found
+	 * @throws Exception
+	 */
+	protected final String readSources(Parameters parameters, String... names) throws Exception {
+		List<File> files = new ArrayList<File>();
+		StringBuilder entropy = new StringBuilder();
+		for (String name : names) {
+			if (EntropySources.getSource(name.trim()) instanceof MacEntropySource) dependsOnNetwork(parameters);
+			entropy.append(EntropySources.getEntropy(name.trim(), parameters.getMap(), files));
+		}
+		for (File file : files) {
+			dependsOn(parameters, file);
+		}
+		return entropy.toString();
 	}
-	
 
-	private String getUserhome() {
-		if (userhome == null) userhome = System.getProperty("user.home");
-		return userhome;
+	private static void invalidate(Parameters p) {
+		pending.remove(p.fingerprint);
+		Derived d = derived.remove(p.fingerprint);
+		if (d != null) {
+			try {
+				DerivedKeyCache.remove(p.algorithm_pbe, p.provider, ObfuscateSecretsHelper.stripToASCII(d.salt), d.count,
+						ObfuscateSecretsHelper.stripToASCII(d.password));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
 	}
 
+	private final Derived compute(final Parameters p) throws Exception {
+		EntropyDigest entropy = new EntropyDigest(getDigest(p), getDigest(p));
+		if (p.entropy != null) {
+			entropy.update(p.entropy);
+		} else {
+			digestEntropy(p, entropy);
+		}
+		if (entropy.isBlank()) throw new RuntimeException("Cannot get local information to generate password");
+		String username = p.username == null ? System.getProperty("user.name") : p.username;
+		String userhome = p.userhome == null ? System.getProperty("user.home") : p.userhome;
+
+		String salt = p.salt;
+		if (salt == null) {
+			MessageDigest md = entropy.getSaltDigest();
+			md.update(username.getBytes());
+			salt = ObfuscateSecretsHelper.stripToASCII(Base64.encodeToString(md.digest(), true));
+			while (salt.length() < 8) salt += salt;
+			salt = salt.substring(0, 8);
+		}
+
+		int count = p.count;
+		if (count == 0) {
+			count = entropy.getCount();
+		}
+
+		String uhome = userhome;
+		if (uhome == null || uhome.trim().length() <= entropy.getLength() / 2)
+			uhome = username;
+		MessageDigest md = entropy.getPasswordDigest();
+		md.update(uhome.getBytes());
+		String password = ObfuscateSecretsHelper.stripToASCII(Base64.encodeToString(md.digest(), true));
+
+		return new Derived(salt, password, count);
+	}
 
 
 	/**
@@ -163,13 +287,17 @@ public abstract class PassphraseObfuscatorImp implements ObfuscatorInf {
 	 * @throws HashEncoderException
 	 */
 	protected MessageDigest getDigest() {
+		return getDigest(getParameters());
+	}
+
+	private static MessageDigest getDigest(final Parameters p) {
 		MessageDigest md = null;
 		try {
-			if (provider == null) {
-				md = MessageDigest.getInstance(algorithm_hash);
+			if (p.provider == null) {
+				md = MessageDigest.getInstance(p.algorithm_hash);
 				//System.out.println("MessageDigest provider is "+md.getProvider().getName());
 			} else {
-				md =MessageDigest.getInstance(algorithm_hash, provider);
+				md =MessageDigest.getInstance(p.algorithm_hash, p.provider);
 			}
 			return md;
 		} catch (NoSuchAlgorithmException e) {
@@ -191,6 +319,7 @@ public abstract class PassphraseObfuscatorImp implements ObfuscatorInf {
 	protected final Cipher generateKey(final String salt, final int iteration, final String password,
 			final int cipher_type, final String algorithm) {
 		Cipher pbeCipher = null;
+		String provider = getParameters().provider;
 		try {
 			// Create PBE parameter set
 			PBEParameterSpec pbeParamSpec = new PBEParameterSpec(salt.getBytes(), iteration);
@@ -226,9 +355,11 @@ public abstract class PassphraseObfuscatorImp implements ObfuscatorInf {
 	 * @throws BadPaddingException
 	 */
 	public final EncryptedInfo encrypt(byte[] value) throws Exception {
-		Cipher enc = generateKey(ObfuscateSecretsHelper.stripToASCII(generateSalt()), generateIteration(),
-				ObfuscateSecretsHelper.stripToASCII(generatePassword()), Cipher.ENCRYPT_MODE, this.algorithm_pbe);
-		return new EncryptedInfo(enc.doFinal(value), this.getClass().getCanonicalName(), this.map);
+		Parameters p = getParameters();
+		Derived d = derive(p);
+		byte[] enc = DerivedKeyCache.doFinal(p.algorithm_pbe, p.provider, ObfuscateSecretsHelper.stripToASCII(d.salt),
+				d.count, ObfuscateSecretsHelper.stripToASCII(d.password), Cipher.ENCRYPT_MODE, value);
+		return new EncryptedInfo(enc, this.getClass().getCanonicalName(), p.map);
 	}
 
 	/**
@@ -250,17 +381,126 @@ public abstract class PassphraseObfuscatorImp implements ObfuscatorInf {
 		if (encrypted_value.getBytes().length == 0) {
 			throw new RuntimeException("Encrypted value is null");
 		}
-		//This causes the impl to be reset for the encrypted parameters
-		this.initializeParameters(encrypted_value.getParameters());
+		//Use the encrypted parameters without resetting the impl
+		Parameters p = getParameters(encrypted_value.getParameters());
+		Derived d = derive(p);
 
-		//Decrypt the value 
-		Cipher enc = generateKey(ObfuscateSecretsHelper.stripToASCII(generateSalt()), generateIteration(),
-				ObfuscateSecretsHelper.stripToASCII(generatePassword()), Cipher.DECRYPT_MODE, this.algorithm_pbe);
-		return enc.doFinal(encrypted_value.getBytes());
+		//Decrypt the value with the cached derived key
+		return DerivedKeyCache.doFinal(p.algorithm_pbe, p.provider, ObfuscateSecretsHelper.stripToASCII(d.salt),
+				d.count, ObfuscateSecretsHelper.stripToASCII(d.password), Cipher.DECRYPT_MODE,
+				encrypted_value.getBytes());
 	}
 
+	/**
+	 * Decrypt many secrets, grouped by their parameters so the key is derived
+	 * and the cipher initialised once per group.
+	 * 
+	 * @param encrypted_values
+	 * @return a result per secret in the same order
+	 */
+	@Override
+	public List<DecryptResult> decryptBatch(final List<EncryptedInfo> encrypted_values) {
+		DecryptResult[] results = new DecryptResult[encrypted_values.size()];
+		Map<Map<String, String>, List<Integer>> groups = new LinkedHashMap<Map<String, String>, List<Integer>>();
+		for (int i = 0; i < results.length; i++) {
+			EncryptedInfo info = encrypted_values.get(i);
+			if (info == null) {
+				results[i] = new DecryptResult(info, null, new RuntimeException("Encrypted container is null"));
+			} else if (info.getBytes().length == 0) {
+				results[i] = new DecryptResult(info, null, new RuntimeException("Encrypted value is null"));
+			} else {
+				Map<String, String> key = ObfuscateSecretsHelper.normalizeParameters(info.getParameters());
+				List<Integer> group = groups.get(key);
+				if (group == null) {
+					group = new ArrayList<Integer>();
+					groups.put(key, group);
+				}
+				group.add(i);
+			}
+		}
+
+		for (List<Integer> group : groups.values()) {
+			List<EncryptedInfo> members = new ArrayList<EncryptedInfo>(group.size());
+			for (Integer index : group) members.add(encrypted_values.get(index));
+			try {
+				Parameters p = getParameters(members.get(0).getParameters());
+				Derived d = derive(p);
+				List<DecryptResult> decrypted = DerivedKeyCache.decrypt(p.algorithm_pbe, p.provider,
+						ObfuscateSecretsHelper.stripToASCII(d.salt), d.count,
+						ObfuscateSecretsHelper.stripToASCII(d.password), members);
+				for (int i = 0; i < group.size(); i++) results[group.get(i)] = decrypted.get(i);
+			} catch (Exception e) {
+				for (int i = 0; i < group.size(); i++) results[group.get(i)] = new DecryptResult(members.get(i), null, e);
+			}
+		}
+		return Arrays.asList(results);
+	}
 	
 	public Map<String, String> getInitializeParameters() {
-		return map;
+		return getParameters().map;
+	}
+
+	/**
+	 * Immutable snapshot of the initialisation parameters
+	 */
+	public static final class Parameters {
+		private final Map<String, String>	map;
+		private final Map<String, String>	normalized;
+		private final String				provider, algorithm_hash, algorithm_pbe;
+		private final String				entropy, salt, username, userhome;
+		private final int					count;
+		private final List<Object>			fingerprint;
+
+		Parameters(Class<?> owner, Map<String, String> map) {
+			this.map = map == null ? null : Collections.unmodifiableMap(new LinkedHashMap<String, String>(map));
+			this.normalized = ObfuscateSecretsHelper.normalizeParameters(map);
+			this.fingerprint = Arrays.<Object>asList(owner, normalized);
+			this.algorithm_pbe = ObfuscateSecretsHelper.getMapValue(map, PWB_ALGORITM_PBE, PBE_DEFAULT, false);
+			this.algorithm_hash = ObfuscateSecretsHelper.getMapValue(map, PWB_ALGORITM_HASH, HASH_DEFAULT, false);
+			this.provider = ObfuscateSecretsHelper.getMapValue(map, PWB_PROVIDER, null, true);
+			this.entropy = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_NETWORK_ENTROPY, null, true);
+			this.salt = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_SALT, null, true);
+			this.username = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_USERNAME, null, true);
+			this.userhome = ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_USERHOME, null, true);
+			this.count = Integer.parseInt(ObfuscateSecretsHelper.getMapValue(map, PWB_OVERRIDE_ITERATION, "0", true));
+		}
+
+		boolean matches(Map<String, String> other) {
+			return normalized.equals(ObfuscateSecretsHelper.normalizeParameters(other));
+		}
+
+		/**
+		 * @return the parameters as passed on initialisation
+		 */
+		public Map<String, String> getMap() {
+			return map;
+		}
+
+		public String getProvider() {
+			return provider;
+		}
+
+		public String getAlgorithmHash() {
+			return algorithm_hash;
+		}
+
+		public String getAlgorithmPBE() {
+			return algorithm_pbe;
+		}
+	}
+
+	/**
+	 * Values worked out from the entropy for a snapshot, the entropy itself
+	 * is not kept
+	 */
+	private static final class Derived {
+		private final String	salt, password;
+		private final int		count;
+
+		Derived(String salt, String password, int count) {
+			this.salt = salt;
+			this.password = password;
+			this.count = count;
+		}
 	}
 }
@@ -0,0 +1,64 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+import org.hoggmania.client.util.protection.ObfuscatorInf;
+import org.hoggmania.client.util.protection.utils.MachineEntropySource;
+
+
+/**
+ * Obfuscate a secret/password with the Linux machine identity as the entropy,
+ * read directly from the file system instead of running a command. The
+ * entropy is the concatenation of: -<br>
+ * <li>/etc/machine-id (or /var/lib/dbus/machine-id)</li>
+ * <li>/sys/class/net/&lt;interface&gt;/address of the interfaces passing the
+ * filter, in interface name order</li>
+ * <li>optional /sys/class/dmi/id files</li>
+ * The parameters are: -<br>
+ * <li>PWB_MACHINE_INTERFACE_INCLUDE regular expression of the interface
+ * names to use, by default all</li>
+ * <li>PWB_MACHINE_INTERFACE_EXCLUDE regular expression of the interface
+ * names to skip, by default loopback, container and virtual bridges
+ * {@value MachineEntropySource#INTERFACE_EXCLUDE_DEFAULT}</li>
+ * <li>PWB_MACHINE_DMI comma separated /sys/class/dmi/id file names, e.g.
+ * product_uuid,board_serial (often only readable by root)</li>
+ * <li>PWB_MACHINE_ROOT the file system root, for a host mounted into a
+ * container, by default /</li>
+ * The rest of the parameters are the same as the
+ * {@link PassphraseObfuscatorHash}. The entropy is read by the machine-id
+ * {@link EntropySource}.
+ * 
+ * @author james.holland
+ * 
+ */
+public class PassphraseObfuscatorMachine extends PassphraseObfuscatorImp implements ObfuscatorInf {
+
+	public static final String	PWB_MACHINE_INTERFACE_INCLUDE	= MachineEntropySource.PWB_MACHINE_INTERFACE_INCLUDE;
+	public static final String	PWB_MACHINE_INTERFACE_EXCLUDE	= MachineEntropySource.PWB_MACHINE_INTERFACE_EXCLUDE;
+	public static final String	PWB_MACHINE_DMI					= MachineEntropySource.PWB_MACHINE_DMI;
+	public static final String	PWB_MACHINE_ROOT				= MachineEntropySource.PWB_MACHINE_ROOT;
+
+	@Override
+	protected final String findEntropy(Parameters parameters) throws Exception {
+		String entropy = readSources(parameters, MachineEntropySource.NAME);
+		if (entropy.length() == 0)
+			throw new RuntimeException("Cannot get local information to generate password");
+		return entropy;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection;
+
+import org.hoggmania.client.util.protection.ObfuscatorInf;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+
+/**
+ * Obfuscate a secret/password with the entropy of several
+ * {@link EntropySource}s, concatenated in the order given by the parameter
+ * PWB_ENTROPY_SOURCES, by default {@value #SOURCES_DEFAULT}. e.g.
+ * <code>machine-id,env</code> with PWB_ENTROPY_ENV=HOSTNAME. The values are
+ * shared with every other adapter using the same sources and parameters, see
+ * {@link EntropySources} for the sources and their parameters.
+ * 
+ * The rest of the parameters are the same as the {@link PassphraseObfuscatorHash}
+ * 
+ * @author james.holland
+ *
+ */
+public class PassphraseObfuscatorSources extends PassphraseObfuscatorImp implements ObfuscatorInf {
+
+	public static final String	SOURCES_DEFAULT	= "machine-id,mac";
+
+	@Override
+	protected final String findEntropy(Parameters parameters) throws Exception {
+		String sources = ObfuscateSecretsHelper.getMapValue(parameters.getMap(), EntropySources.PWB_ENTROPY_SOURCES, SOURCES_DEFAULT, false);
+		String entropy = readSources(parameters, sources.split(","));
+		if (entropy.trim().length() == 0)
+			throw new RuntimeException("Cannot get local information to generate password");
+		return entropy;
+	}
+}
@@ -18,31 +18,37 @@
 */
 package org.hoggmania.client.util.protection;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Map;
 import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
 import java.util.stream.LongStream;
 
 import org.hoggmania.client.util.protection.ObfuscatorInf;
 import org.hoggmania.client.util.protection.utils.FindNetworkEntropy;
+import org.hoggmania.client.util.protection.utils.HttpEntropyCache;
 import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
 
 
 /**
  * This class obfuscates a password using a URL to define the entropy. The url can be a file or website and the default is http://www.google.com/
+ * Entropy from a website is kept in a local cache, see {@link HttpEntropyCache}
  * 
  * The rest of the parameters are the same as the {@link PassphraseObfuscatorHash}
  * 
@@ -51,11 +57,13 @@ import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
  */
 public class PassphraseObfuscatorURL extends PassphraseObfuscatorImp implements ObfuscatorInf {
 
+	public static final String PWB_ENTROPY_RANDOM = "PWB_ENTROPY_RANDOM";
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final Object GENERATE_LOCK = new Object();
+
+
 
-	private String	 url;
-	private boolean  doNotgenerateEntropyFile;	
-	
-	
 	public String getDefauktEntropyFile() {
 		String defaultEntropyFile = null;
 		String packName = new Object(){}.getClass().getPackage().getName();  
@@ -64,109 +72,250 @@ public class PassphraseObfuscatorURL extends PassphraseObfuscatorImp implements
 		return defaultEntropyFile;
 	}
 	
-	@Override
-	public void initializeParameters(Map<String, String> map) throws Exception {		
-		super.initializeParameters(map);	
-		this.url = ObfuscateSecretsHelper.getMapValue(map, PWB_URL, getDefauktEntropyFile(), false);
-		this.doNotgenerateEntropyFile = Boolean.parseBoolean(ObfuscateSecretsHelper.getMapValue(map, PWB_DO_NOT_GENERATE_ENTROPY, "false", false));		
+	/**
+	 * Generates the default entropy file. The random data comes from a non
+	 * blocking generator, set PWB_ENTROPY_RANDOM (-D) to choose the
+	 * SecureRandom algorithm, by default DRBG, NativePRNGNonBlocking or the
+	 * platform default whichever is available first. The file is written to a
+	 * temporary file and moved into place, and processes starting together
+	 * take a lock on a side file so only one generates while the rest wait
+	 * and read its result. A file that already holds entropy once the lock is
+	 * taken is kept.
+	 */
+	protected final void generateEntropy() {
+		File file = new File(getDefauktEntropyFile());
+		synchronized (GENERATE_LOCK) {
+			FileChannel lock = null;
+			try {
+				lock = FileChannel.open(new File(file.getPath() + ".lock").toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE);
+				lock.lock();
+				if (hasEntropy(file)) {
+					// Generated by another process or thread before the lock was taken
+					return;
+				}
 
+				SecureRandom random = getRandom();
+				StringBuilder entropy = new StringBuilder();
+				LongStream ls = random.longs(100);
+				PrimitiveIterator.OfLong o = ls.iterator();
+				while (o.hasNext()) {
+					entropy.append(Long.toHexString(o.next()));
+				}
+				entropy.append(FindNetworkEntropy.getNetworkEntropy().replaceAll("-", "").replaceAll(":", ""));
+				ls = random.longs(100);
+				o = ls.iterator();
+				while (o.hasNext()) {
+					entropy.append(Long.toHexString(o.next()));
+				}
 
-		
-		
+				Path target = file.toPath().toAbsolutePath();
+				Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+				try {
+					FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE);
+					try {
+						ByteBuffer bytes = ByteBuffer.wrap(entropy.toString().getBytes("utf-8"));
+						while (bytes.hasRemaining()) out.write(bytes);
+						out.force(true);
+					} finally {
+						out.close();
+					}
+					try {
+						Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} catch (AtomicMoveNotSupportedException e) {
+						Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+					}
+				} finally {
+					Files.deleteIfExists(temp);
+				}
+			} catch (IOException ex) {
+				// Report
+				ex.printStackTrace();
+			} finally {
+				// Closing the channel releases the lock
+				try {lock.close();} catch (Exception ex) {/*ignore*/}
+			}
+		}
 	}
-	
-	protected final void generateEntropy() {
-		
-		Writer writer = null;
 
+	private static boolean hasEntropy(File file) {
+		if (!file.isFile()) return false;
 		try {
-		    SecureRandom random = SecureRandom.getInstanceStrong();
-		    
-		    writer = new BufferedWriter(new OutputStreamWriter(
-		          new FileOutputStream(getDefauktEntropyFile()), "utf-8"));
-		    
-		    
-		    LongStream ls = random.longs(100);
-		    
-		    PrimitiveIterator.OfLong o = ls.iterator();
-		    while(o.hasNext()){
-		    		writer.write(Long.toHexString(o.next()));  
-		    }  
-
-		    writer.write(FindNetworkEntropy.getNetworkEntropy().replaceAll("-", "").replaceAll(":", ""));
-		    ls = random.longs(100);
-		    o = ls.iterator();
-		    while(o.hasNext()){
-		    		writer.write(Long.toHexString(o.next()));  
-		    }  
-
-		    		
-		    
-		} catch (NoSuchAlgorithmException | IOException ex) {
-		    // Report
-			ex.printStackTrace();
-		} finally {
-		   try {writer.close();} catch (Exception ex) {/*ignore*/}
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				return readEntropy(Channels.newReader(channel, newDecoder(), -1), new Consumer<CharBuffer>() {
+					public void accept(CharBuffer chars) {
+					}
+				});
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static SecureRandom getRandom() {
+		String algorithm = System.getProperty(PWB_ENTROPY_RANDOM);
+		if (algorithm != null) {
+			try {
+				return SecureRandom.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				System.out.println(algorithm + " is not available, using a default non-blocking SecureRandom");
+			}
 		}
+		for (String name : new String[] { "DRBG", "NativePRNGNonBlocking" }) {
+			try {
+				return SecureRandom.getInstance(name);
+			} catch (NoSuchAlgorithmException e) {
+				// Try the next one
+			}
+		}
+		return new SecureRandom();
 	}
 	
 	
 	@Override
-	protected final String findEntropy() throws Exception  {
-		String result = null;
+	protected final String findEntropy(Parameters parameters) throws Exception  {
+		final StringBuilder entropy = new StringBuilder();
+		readOrGenerateEntropy(parameters, new Consumer<CharBuffer>() {
+			public void accept(CharBuffer chars) {
+				while (chars.hasRemaining()) {
+					char c = chars.get();
+					if (c != '\n' && c != '\r') entropy.append(c);
+				}
+			}
+		}, new Runnable() {
+			public void run() {
+				entropy.setLength(0);
+			}
+		});
+		return entropy.toString();
+	}
+
+	/**
+	 * Streams the entropy straight into the digest, local files are memory
+	 * mapped, so the entropy is never held in memory.
+	 */
+	@Override
+	protected final void digestEntropy(Parameters parameters, final EntropyDigest digest) throws Exception {
+		readOrGenerateEntropy(parameters, new Consumer<CharBuffer>() {
+			public void accept(CharBuffer chars) {
+				digest.update(chars, true);
+			}
+		}, new Runnable() {
+			public void run() {
+				digest.reset();
+			}
+		});
+	}
+
+	private final void readOrGenerateEntropy(Parameters parameters, Consumer<CharBuffer> consumer, Runnable reset) throws Exception {
+		Map<String, String> map = parameters.getMap();
+		String url = ObfuscateSecretsHelper.getMapValue(map, PWB_URL, getDefauktEntropyFile(), false);
+		boolean doNotgenerateEntropyFile = Boolean.parseBoolean(ObfuscateSecretsHelper.getMapValue(map, PWB_DO_NOT_GENERATE_ENTROPY, "false", false));
 		try {
-			result = readEntropy();	
+			readEntropy(parameters, url, consumer);
 		} catch (Exception e) {
 			
 			if (!doNotgenerateEntropyFile) {
 				
 				System.out.println("No entropy found so auto generating entropy file at "+ getDefauktEntropyFile());
 				generateEntropy();
-				result = readEntropy();
+				reset.run();
+				readEntropy(parameters, url, consumer);
 			} else {
 				System.out.println("No entropy found  please create entropy file at "+ getDefauktEntropyFile()+" or define the file location with parameter "+PWB_URL);
-				//e.printStackTrace();
+				throw e;
 			}
 			
 		}
-		return result;
-		
 	}
 
-	private final String readEntropy() throws Exception {
-		String entropy = null;
+	/**
+	 * Reads the entropy in one pass handing the characters over a buffer at a
+	 * time. Line breaks are left for the consumer to drop. The file is watched
+	 * from before it is read so a change while reading is not missed.
+	 */
+	private final void readEntropy(final Parameters parameters, final String url, final Consumer<CharBuffer> consumer) throws Exception {
+		boolean found = false;
 		try {
-			InputStream stream = null;
-			if (this.url != null) {
-				if (this.url.trim().toLowerCase().startsWith("http"))  {
-					URL resource_url = new URL(this.url);
-					URLConnection uc = resource_url.openConnection();
-					stream = uc.getInputStream();
+			if (url == null) {				
+				throw new Exception("Remote or local entropy file not set");
+			}
+			File file;
+			if (url.trim().toLowerCase().startsWith("http"))  {
+				// Remote entropy is read from the local cached copy
+				file = HttpEntropyCache.getEntropyFile(url.trim());
+			} else {
+				file = new File(url);
+			}
+			dependsOn(parameters, file);
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				if (channel.size() > Integer.MAX_VALUE) {
+					found = readEntropy(Channels.newReader(channel, newDecoder(), -1), consumer);
 				} else {
-					stream = new FileInputStream(new File(this.url));
+					found = readEntropy(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), consumer);
 				}
-			} 
-			
-			if (stream == null) {				
-				throw new Exception("Remote or local entropy file not set");
+			} finally {
+				channel.close();
 			}
-			
+		} catch (Exception e) {
+			throw new Exception("Cannot get local information to generate password", e);
+		}
 
-			BufferedReader in = new BufferedReader(new InputStreamReader(stream));
-			String inputLine;	
-			while ((inputLine = in.readLine()) != null) {
-				if (entropy == null) entropy="";
-				entropy +=inputLine;
-			}
+		if (!found)
+			throw new Exception("Cannot get local information to generate password");
+	}
 
+	private static boolean readEntropy(Reader in, Consumer<CharBuffer> consumer) throws IOException {
+		boolean found = false;
+		CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		try {
+			while (in.read(chars) != -1) {
+				found |= drain(chars, consumer);
+			}
+			found |= drain(chars, consumer);
+		} finally {
 			in.close();
-		} catch (Throwable e) {
 		}
+		return found;
+	}
+
+	private static boolean readEntropy(ByteBuffer bytes, Consumer<CharBuffer> consumer) {
+		boolean found = false;
+		CharsetDecoder decoder = newDecoder();
+		CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		while (decoder.decode(bytes, chars, true).isOverflow()) {
+			found |= drain(chars, consumer);
+		}
+		while (decoder.flush(chars).isOverflow()) {
+			found |= drain(chars, consumer);
+		}
+		found |= drain(chars, consumer);
+		return found;
+	}
 
-		if (entropy == null || entropy.trim().length() == 0)
-			throw new Exception("Cannot get local information to generate password");
+	/**
+	 * Hands the buffered characters to the consumer
+	 * 
+	 * @return true if any of them was not white space
+	 */
+	private static boolean drain(CharBuffer chars, Consumer<CharBuffer> consumer) {
+		chars.flip();
+		boolean found = false;
+		for (int i = chars.position(); i < chars.limit() && !found; i++) {
+			found = chars.get(i) > ' ';
+		}
+		consumer.accept(chars);
+		chars.clear();
+		return found;
+	}
 
-		return entropy;
+	private static CharsetDecoder newDecoder() {
+		return Charset.defaultCharset().newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
 	}
 
 }
@@ -0,0 +1,187 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import org.hoggmania.client.util.protection.PassphraseObfuscatorFactory;
+
+/**
+ * A view of properties that de-obfuscates a value when it is read. The source
+ * properties are the defaults of the view, so nothing is copied or decrypted
+ * up front and a secret that is never read is never decrypted. A value is
+ * obfuscated when it is in the {code...}encrypted_value format and the code is
+ * known to {@link PassphraseObfuscatorFactory#getCodes()}, other values such
+ * as {0} message patterns or JSON are returned unchanged. <br>
+ * Decrypted values are kept by their obfuscated value, so a changed property
+ * is decrypted again. The retention is bounded by the system options (-D): -
+ * <li>PWB_SECRET_CACHE_SIZE maximum number of decrypted values kept (default
+ * 64, 0 keeps none)</li>
+ * <li>PWB_SECRET_CACHE_TTL milliseconds a decrypted value is kept (default 0,
+ * until evicted)</li>
+ * Only {@link #getProperty(String)} and {@link #getProperty(String, String)}
+ * de-obfuscate, the Hashtable methods return the stored values. Only the
+ * obfuscated values are serialized, the decrypted values are not.
+ * 
+ * @author james.holland
+ * 
+ */
+public class DecryptingProperties extends Properties {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String	PWB_SECRET_CACHE_SIZE	= "PWB_SECRET_CACHE_SIZE";
+	public static final String	PWB_SECRET_CACHE_TTL	= "PWB_SECRET_CACHE_TTL";
+
+	private final int							maxEntries;
+	private final long							ttl;
+	private final transient Map<String, Secret>		decrypted;
+	private final transient SingleFlight<String, String>	decrypting	= new SingleFlight<String, String>();
+
+	/**
+	 * @param source
+	 *            the properties holding obfuscated values
+	 */
+	public DecryptingProperties(Properties source) {
+		this(source, Integer.getInteger(PWB_SECRET_CACHE_SIZE, 64).intValue(), Long.getLong(PWB_SECRET_CACHE_TTL, 0L).longValue());
+	}
+
+	/**
+	 * @param source
+	 *            the properties holding obfuscated values
+	 * @param maxEntries
+	 *            maximum number of decrypted values kept
+	 * @param ttl
+	 *            milliseconds a decrypted value is kept, 0 or less until
+	 *            evicted
+	 */
+	public DecryptingProperties(Properties source, final int maxEntries, long ttl) {
+		super(source);
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+		this.decrypted = new LinkedHashMap<String, Secret>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Secret> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Rebuilds the cache of decrypted values, which is not serialized
+	 */
+	private Object readResolve() {
+		DecryptingProperties view = new DecryptingProperties(defaults, maxEntries, ttl);
+		view.putAll(this);
+		return view;
+	}
+
+	@Override
+	public String getProperty(String key) {
+		return deObfuscate(key, super.getProperty(key));
+	}
+
+	@Override
+	public String getProperty(String key, String defaultValue) {
+		String value = getProperty(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * Forgets the decrypted values
+	 */
+	public void clearDecrypted() {
+		synchronized (decrypted) {
+			decrypted.clear();
+		}
+	}
+
+	/**
+	 * @return number of decrypted values kept
+	 */
+	public int getDecryptedCount() {
+		synchronized (decrypted) {
+			return decrypted.size();
+		}
+	}
+
+	private String deObfuscate(String key, final String value) {
+		if (!isObfuscated(value)) return value;
+		synchronized (decrypted) {
+			Secret secret = decrypted.get(value);
+			if (secret != null) {
+				if (!secret.isExpired(ttl)) return secret.plain;
+				decrypted.remove(value);
+			}
+		}
+		try {
+			String plain = decrypting.execute(value, new Callable<String>() {
+				public String call() throws Exception {
+					return ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(value);
+				}
+			});
+			if (maxEntries > 0) {
+				synchronized (decrypted) {
+					decrypted.put(value, new Secret(plain));
+				}
+			}
+			return plain;
+		} catch (Exception e) {
+			throw new RuntimeException("Cannot de-obfuscate " + key, e);
+		}
+	}
+
+	/**
+	 * @return true when the value starts with the header of a known code
+	 */
+	private static boolean isObfuscated(String value) {
+		if (value == null) return false;
+		int start = 0;
+		while (start < value.length() && Character.isWhitespace(value.charAt(start))) {
+			start++;
+		}
+		if (start == value.length() || value.charAt(start) != '{') return false;
+		int end = start + 1;
+		while (end < value.length() && value.charAt(end) != '}' && value.charAt(end) != ':') {
+			end++;
+		}
+		return end < value.length() && PassphraseObfuscatorFactory.isCode(value.substring(start + 1, end));
+	}
+
+	/**
+	 * A decrypted value and when it was decrypted
+	 */
+	private static final class Secret {
+		private final String	plain;
+		private final long		created	= System.currentTimeMillis();
+
+		Secret(String plain) {
+			this.plain = plain;
+		}
+
+		boolean isExpired(long ttl) {
+			return ttl > 0 && System.currentTimeMillis() - created > ttl;
+		}
+	}
+}
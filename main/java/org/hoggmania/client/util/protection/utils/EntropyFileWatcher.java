@@ -0,0 +1,163 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Watches the files entropy was read from and runs the registered
+ * invalidation when one changes, so values derived from the entropy can be
+ * cached without polling the file. The directories are watched with a
+ * {@link WatchService} on a daemon thread, events arriving in a burst are
+ * coalesced and each invalidation runs once. An invalidation is removed once
+ * it has run, the next read of the file registers again. System options (-D)
+ * available are: -
+ * <li>PWB_WATCH_ENTROPY false to turn watching off (default true)</li>
+ * <li>PWB_WATCH_DELAY milliseconds without events before a burst is handled
+ * (default 250)</li>
+ * 
+ * @author james.holland
+ * 
+ */
+public final class EntropyFileWatcher {
+
+	public static final String	PWB_WATCH_ENTROPY	= "PWB_WATCH_ENTROPY";
+	public static final String	PWB_WATCH_DELAY		= "PWB_WATCH_DELAY";
+
+	private static final ConcurrentHashMap<Path, Map<Object, Runnable>>	listeners	= new ConcurrentHashMap<Path, Map<Object, Runnable>>();
+	private static final Set<Path>										directories	= ConcurrentHashMap.<Path>newKeySet();
+	private static WatchService											service		= null;
+
+	private EntropyFileWatcher() {
+	}
+
+	/**
+	 * Registers the invalidation to run when the file changes, replacing any
+	 * invalidation already registered for the file under the same key.
+	 * 
+	 * @param file
+	 *            the entropy was read from
+	 * @param key
+	 *            identifies what depends on the file, typically a parameter
+	 *            fingerprint
+	 * @param invalidation
+	 *            to run once the file has changed
+	 */
+	public static void register(File file, final Object key, final Runnable invalidation) {
+		if (!Boolean.parseBoolean(System.getProperty(PWB_WATCH_ENTROPY, "true"))) return;
+		Path path = file.toPath().toAbsolutePath().normalize();
+		Path directory = path.getParent();
+		if (directory == null || !Files.isDirectory(directory)) return;
+
+		// Atomic with the removal by the watcher, so the invalidation is never put in a map already run
+		listeners.compute(path, new BiFunction<Path, Map<Object, Runnable>, Map<Object, Runnable>>() {
+			public Map<Object, Runnable> apply(Path p, Map<Object, Runnable> registered) {
+				if (registered == null) registered = new ConcurrentHashMap<Object, Runnable>();
+				registered.put(key, invalidation);
+				return registered;
+			}
+		});
+
+		if (directories.add(directory)) {
+			try {
+				directory.register(getService(), StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+			} catch (IOException e) {
+				directories.remove(directory);
+				System.out.println("Cannot watch " + directory + " for entropy changes: " + e.getMessage());
+			}
+		}
+	}
+
+	private static synchronized WatchService getService() throws IOException {
+		if (service == null) {
+			service = FileSystems.getDefault().newWatchService();
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					watch();
+				}
+			}, "entropy-file-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return service;
+	}
+
+	private static void watch() {
+		try {
+			while (true) {
+				Set<Path> changed = new HashSet<Path>();
+				collect(service.take(), changed);
+				// Coalesce the rest of the burst, e.g. a write followed by a move
+				long delay = Long.getLong(PWB_WATCH_DELAY, 250L).longValue();
+				WatchKey key;
+				while ((key = service.poll(delay, TimeUnit.MILLISECONDS)) != null) {
+					collect(key, changed);
+				}
+				for (Path path : changed) {
+					Map<Object, Runnable> registered = listeners.remove(path);
+					if (registered == null) continue;
+					for (Runnable invalidation : registered.values()) {
+						try {
+							invalidation.run();
+						} catch (Throwable t) {
+							t.printStackTrace();
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// Shutting down
+		}
+	}
+
+	private static void collect(WatchKey key, Set<Path> changed) {
+		Path directory = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// Events were lost so everything in the directory may have changed
+				for (Iterator<Path> iterator = listeners.keySet().iterator(); iterator.hasNext();) {
+					Path path = iterator.next();
+					if (directory.equals(path.getParent())) changed.add(path);
+				}
+			} else {
+				changed.add(directory.resolve((Path) event.context()));
+			}
+		}
+		key.reset();
+	}
+}
@@ -0,0 +1,60 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.EntropySource;
+
+/**
+ * The values of the environment variables listed (comma separated) in
+ * PWB_ENTROPY_ENV, a variable that is not set is skipped
+ * 
+ * @author james.holland
+ * 
+ */
+public class EnvEntropySource implements EntropySource {
+
+	public static final String	NAME			= "env";
+	public static final String	PWB_ENTROPY_ENV	= "PWB_ENTROPY_ENV";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public Collection<String> getParameterNames() {
+		return Collections.singletonList(PWB_ENTROPY_ENV);
+	}
+
+	public String getEntropy(Map<String, String> parameters, List<File> files) {
+		if (parameters == null)
+			throw new RuntimeException("REQUIRES_MISSING_PARAMETER=" + PWB_ENTROPY_ENV);
+		StringBuilder entropy = new StringBuilder();
+		for (String name : ObfuscateSecretsHelper.getMapValue(parameters, PWB_ENTROPY_ENV, null, false).split(",")) {
+			if (name.trim().length() == 0) continue;
+			String value = System.getenv(name.trim());
+			if (value != null) entropy.append(value.trim());
+		}
+		return entropy.toString();
+	}
+}
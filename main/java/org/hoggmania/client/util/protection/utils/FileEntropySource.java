@@ -0,0 +1,72 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.EntropySource;
+
+/**
+ * The content of the local file PWB_ENTROPY_FILE without line breaks, read in
+ * the default character set
+ * 
+ * @author james.holland
+ * 
+ */
+public class FileEntropySource implements EntropySource {
+
+	public static final String	NAME				= "file";
+	public static final String	PWB_ENTROPY_FILE	= "PWB_ENTROPY_FILE";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public Collection<String> getParameterNames() {
+		return Collections.singletonList(PWB_ENTROPY_FILE);
+	}
+
+	public String getEntropy(Map<String, String> parameters, List<File> files) throws IOException {
+		if (parameters == null)
+			throw new RuntimeException("REQUIRES_MISSING_PARAMETER=" + PWB_ENTROPY_FILE);
+		return read(new File(ObfuscateSecretsHelper.getMapValue(parameters, PWB_ENTROPY_FILE, null, false)), files);
+	}
+
+	/**
+	 * Reads the file, the same way as the entropy file of
+	 * {@link org.hoggmania.client.util.protection.PassphraseObfuscatorURL}
+	 */
+	static String read(File file, List<File> files) throws IOException {
+		files.add(file);
+		String content = new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+		StringBuilder entropy = new StringBuilder(content.length());
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c != '\n' && c != '\r') entropy.append(c);
+		}
+		return entropy.toString();
+	}
+}
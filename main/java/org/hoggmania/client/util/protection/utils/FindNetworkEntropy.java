@@ -18,26 +18,53 @@
 */
 package org.hoggmania.client.util.protection.utils;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
  * This class retrieves the Network entropy for the local machine. It will
- * concatenate all NIC mac addresses into one string.
+ * concatenate all NIC mac addresses into one string. <br>
+ * The addresses are read once per JVM from
+ * {@link NetworkInterface#getHardwareAddress()} and memoized. System options
+ * (-D) available are: -
+ * <li>PWB_NETWORK_ENTROPY_REFRESH milliseconds before the addresses are read
+ * again (default 0, never). When they have changed the values derived from
+ * them are invalidated, see {@link #register(Object, Runnable)}</li>
+ * <li>PWB_NETWORK_ENTROPY_COMMAND true to parse the output of ifconfig /
+ * ipconfig instead (default false)</li>
  * 
  * @author james.holland
  * 
  */
 public class FindNetworkEntropy {
 
+	public static final String	PWB_NETWORK_ENTROPY_REFRESH	= "PWB_NETWORK_ENTROPY_REFRESH";
+	public static final String	PWB_NETWORK_ENTROPY_COMMAND	= "PWB_NETWORK_ENTROPY_COMMAND";
+
 	private static final String	MAC_DELIMITER	= " ";
 	public static final String	MAC_MATCHER		= "[0-9a-fA-F]{2}[-:][0-9a-fA-F]{2}[-:][0-9a-fA-F]{2}[-:][0-9a-fA-F]{2}[-:][0 -9a-fA-F]{2}[-:][0-9a-fA-F]{2}";
+	private static final Pattern	MAC_PATTERN		= Pattern.compile(MAC_MATCHER);
+	private static final Pattern	LINE_PATTERN	= Pattern.compile("\n");
+
+	private static volatile String	macAddresses	= null;
+	private static volatile long	readAt			= 0;
+
+	private static final Map<Object, Runnable>	listeners	= new ConcurrentHashMap<Object, Runnable>();
+	private static Thread						poller		= null;
 
 	/**
 	 * Retrieves all NIC mac addresses.
@@ -57,12 +84,148 @@ public class FindNetworkEntropy {
 		return getMacAddresses().replace(MAC_DELIMITER, "");
 	}
 
+	/**
+	 * Forgets the memoized addresses so they are read again on next use, and
+	 * runs the registered invalidations so the values derived from them are
+	 * derived again too.
+	 */
+	public final static void refresh() {
+		synchronized (FindNetworkEntropy.class) {
+			macAddresses = null;
+		}
+		changed();
+	}
+
+	/**
+	 * Registers the invalidation to run on {@link #refresh()} or when a
+	 * periodic read finds the addresses have changed, replacing any
+	 * invalidation already registered under the same key. When
+	 * PWB_NETWORK_ENTROPY_REFRESH is set the addresses are read again in the
+	 * background so values cached from them do not have to be used for the
+	 * change to be noticed.
+	 * 
+	 * @param key
+	 *            identifies what depends on the addresses, typically a
+	 *            parameter fingerprint
+	 * @param invalidation
+	 *            to run once the addresses have changed
+	 */
+	public static void register(Object key, Runnable invalidation) {
+		listeners.put(key, invalidation);
+		final long refresh = Long.getLong(PWB_NETWORK_ENTROPY_REFRESH, 0L).longValue();
+		if (refresh <= 0) return;
+		synchronized (FindNetworkEntropy.class) {
+			if (poller != null) return;
+			poller = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							Thread.sleep(refresh);
+							getMacAddresses();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "network-entropy-refresh");
+			poller.setDaemon(true);
+			poller.start();
+		}
+	}
+
 	/**
 	 * Retrieves all NIC mac addresses in a space charater delimited string
 	 * 
 	 * @return
 	 */
 	private final static String getMacAddresses() {
+		String mac = macAddresses;
+		String previous = null;
+		if (mac == null || isStale()) {
+			synchronized (FindNetworkEntropy.class) {
+				mac = macAddresses;
+				if (mac == null || isStale()) {
+					previous = mac;
+					mac = Boolean.getBoolean(PWB_NETWORK_ENTROPY_COMMAND) ? findMacAddressesByCommand() : findMacAddresses();
+					readAt = System.currentTimeMillis();
+					macAddresses = mac;
+				}
+			}
+		}
+		if (previous != null && !previous.equals(mac)) changed();
+		return mac;
+	}
+
+	/**
+	 * Runs and forgets the registered invalidations, as
+	 * {@link EntropyFileWatcher} does when a file changes
+	 */
+	private static void changed() {
+		for (Object key : listeners.keySet()) {
+			Runnable invalidation = listeners.remove(key);
+			if (invalidation == null) continue;
+			try {
+				invalidation.run();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+	}
+
+	private final static boolean isStale() {
+		long refresh = Long.getLong(PWB_NETWORK_ENTROPY_REFRESH, 0L).longValue();
+		return refresh > 0 && System.currentTimeMillis() - readAt > refresh;
+	}
+
+	/**
+	 * Reads the hardware addresses of the non loopback interfaces ordered by
+	 * interface index, formatted as ifconfig / ipconfig would print them.
+	 */
+	private final static String findMacAddresses() {
+		StringBuilder mac = new StringBuilder();
+		try {
+			for (NetworkInterface ni : getInterfaces()) {
+				String address = format(ni.getHardwareAddress());
+				if (address != null) {
+					if (mac.length() > 0) mac.append(MAC_DELIMITER);
+					mac.append(address);
+				}
+			}
+		} catch (SocketException ex) {
+			ex.printStackTrace();
+		}
+		return mac.toString();
+	}
+
+	private final static List<NetworkInterface> getInterfaces() throws SocketException {
+		List<NetworkInterface> result = new ArrayList<NetworkInterface>();
+		Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+		while (interfaces != null && interfaces.hasMoreElements()) {
+			NetworkInterface ni = interfaces.nextElement();
+			if (!ni.isLoopback() && !ni.isVirtual()) result.add(ni);
+		}
+		Collections.sort(result, new Comparator<NetworkInterface>() {
+			public int compare(NetworkInterface o1, NetworkInterface o2) {
+				return o1.getIndex() < o2.getIndex() ? -1 : (o1.getIndex() == o2.getIndex() ? 0 : 1);
+			}
+		});
+		return result;
+	}
+
+	private final static String format(byte[] address) {
+		if (address == null || address.length != 6) return null;
+		boolean windows = System.getProperty("os.name").startsWith("Windows");
+		StringBuilder sb = new StringBuilder(17);
+		for (int i = 0; i < address.length; i++) {
+			if (i > 0) sb.append(windows ? '-' : ':');
+			char hi = Character.forDigit((address[i] >> 4) & 0xF, 16);
+			char lo = Character.forDigit(address[i] & 0xF, 16);
+			sb.append(windows ? Character.toUpperCase(hi) : hi).append(windows ? Character.toUpperCase(lo) : lo);
+		}
+		return sb.toString();
+	}
+
+	private final static String findMacAddressesByCommand() {
 		String mac = "";
 		String os = System.getProperty("os.name");
 
@@ -91,7 +254,11 @@ public class FindNetworkEntropy {
 		String os = System.getProperty("os.name");
 
 		try {
-			if (os.startsWith("Windows")) {
+			if (!Boolean.getBoolean(PWB_NETWORK_ENTROPY_COMMAND)) {
+				NetworkInterface ni = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+				mac = ni == null ? null : format(ni.getHardwareAddress());
+				if (mac == null) throw new ParseException("cannot read MAC address of the localhost interface", 0);
+			} else if (os.startsWith("Windows")) {
 				mac = parseMacAddress(runIpCommand("ipconfig /all"), ":");
 			} else if (os.startsWith("Mac OS X")) {
 				mac = parseMacAddress(runIpCommand("ifconfig"), "ether");
@@ -106,11 +273,11 @@ public class FindNetworkEntropy {
 	}
 
 	private final static String parseNetworkEntropy(String ipConfigResponse, String macSearch) throws ParseException {
-		StringTokenizer tokenizer = new StringTokenizer(ipConfigResponse, "\n");
-		String lastMacAddress = "";
+		String[] lines = LINE_PATTERN.split(ipConfigResponse);
+		StringBuilder lastMacAddress = new StringBuilder();
 
-		while (tokenizer.hasMoreTokens()) {
-			String line = tokenizer.nextToken().trim();
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i].trim();
 
 			// see if line contains MAC address
 			int macAddressPosition = line.indexOf(macSearch);
@@ -119,11 +286,10 @@ public class FindNetworkEntropy {
 
 			String macAddressCandidate = line.substring(macAddressPosition + macSearch.length()).trim();
 			if (isMacAddress(macAddressCandidate)) {
-				lastMacAddress = lastMacAddress + MAC_DELIMITER + macAddressCandidate;
-				continue;
+				lastMacAddress.append(MAC_DELIMITER).append(macAddressCandidate);
 			}
 		}
-		return lastMacAddress.trim();
+		return lastMacAddress.toString().trim();
 	}
 
 	private final static String parseMacAddress(String ipConfigResponse, String macSearch) throws ParseException {
@@ -164,24 +330,23 @@ public class FindNetworkEntropy {
 	}
 
 	private final static boolean isMacAddress(String macAddressCandidate) {
-		Pattern macPattern = Pattern.compile(MAC_MATCHER);
-		Matcher m = macPattern.matcher(macAddressCandidate);
-		return m.matches();
+		return MAC_PATTERN.matcher(macAddressCandidate).matches();
 	}
 
 	private final static String runIpCommand(String command) throws IOException {
 		Process p = Runtime.getRuntime().exec(command);
-		InputStream stdoutStream = new BufferedInputStream(p.getInputStream());
-		StringBuffer buffer = new StringBuffer();
-		for (;;) {
-			int c = stdoutStream.read();
-			if (c == -1)
-				break;
-			buffer.append((char) c);
+		Reader stdout = new InputStreamReader(p.getInputStream());
+		StringBuilder buffer = new StringBuilder();
+		try {
+			char[] chars = new char[4096];
+			int read;
+			while ((read = stdout.read(chars)) != -1) {
+				buffer.append(chars, 0, read);
+			}
+		} finally {
+			stdout.close();
 		}
-		String outputText = buffer.toString();
-		stdoutStream.close();
-		return outputText;
+		return buffer.toString();
 	}
 
 	/*
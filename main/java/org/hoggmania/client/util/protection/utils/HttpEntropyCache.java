@@ -0,0 +1,261 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fetches remote entropy over http(s) into a local disk cache so it is
+ * downloaded once per host rather than once per adapter. A cached copy is
+ * used straight away, once it is older than the maximum age it is revalidated
+ * in the background with If-None-Match / If-Modified-Since (stale while
+ * revalidate), and it is still used if the server cannot be reached. System
+ * options (-D) available are: -
+ * <li>PWB_HTTP_CONNECT_TIMEOUT connect timeout in milliseconds (default 5000)</li>
+ * <li>PWB_HTTP_READ_TIMEOUT read timeout in milliseconds (default 10000)</li>
+ * <li>PWB_HTTP_MAX_AGE milliseconds a cached copy is used without
+ * revalidation (default 300000)</li>
+ * <li>PWB_HTTP_CACHE_DIR cache directory (default
+ * user.home/.org.hoggmania.entropy.cache)</li>
+ * 
+ * @author james.holland
+ * 
+ */
+public final class HttpEntropyCache {
+
+	public static final String	PWB_HTTP_CONNECT_TIMEOUT	= "PWB_HTTP_CONNECT_TIMEOUT";
+	public static final String	PWB_HTTP_READ_TIMEOUT		= "PWB_HTTP_READ_TIMEOUT";
+	public static final String	PWB_HTTP_MAX_AGE			= "PWB_HTTP_MAX_AGE";
+	public static final String	PWB_HTTP_CACHE_DIR			= "PWB_HTTP_CACHE_DIR";
+
+	private static final String	ETAG			= "etag";
+	private static final String	LAST_MODIFIED	= "last-modified";
+	private static final String	FETCHED			= "fetched";
+	private static final String	URL_KEY			= "url";
+
+	private static final SingleFlight<String, File>	fetches			= new SingleFlight<String, File>();
+	private static final Set<String>				revalidating	= ConcurrentHashMap.<String>newKeySet();
+
+	private HttpEntropyCache() {
+	}
+
+	/**
+	 * Returns the local copy of the remote entropy, downloading it if there is
+	 * no cached copy yet.
+	 * 
+	 * @param url
+	 *            http or https location of the entropy
+	 * @return cached file holding the entropy
+	 * @throws IOException
+	 *             if there is no cached copy and the download fails
+	 */
+	public static File getEntropyFile(final String url) throws IOException {
+		File file = getCacheFile(url, ".entropy");
+		Properties meta = loadMeta(url);
+		if (meta != null && file.isFile()) {
+			long fetched = Long.parseLong(meta.getProperty(FETCHED, "0"));
+			if (System.currentTimeMillis() - fetched > Long.getLong(PWB_HTTP_MAX_AGE, 300000L).longValue()) {
+				revalidateInBackground(url);
+			}
+			return file;
+		}
+		return fetch(url);
+	}
+
+	/**
+	 * Revalidates the cached copy now, downloading it if it changed or is not
+	 * cached.
+	 * 
+	 * @param url
+	 * @return cached file holding the entropy
+	 * @throws IOException
+	 */
+	public static File revalidate(final String url) throws IOException {
+		return fetch(url);
+	}
+
+	/**
+	 * @param url
+	 * @return the file the entropy of the url is cached in, it may not exist
+	 */
+	public static File getCacheFile(String url) {
+		return getCacheFile(url, ".entropy");
+	}
+
+	private static void revalidateInBackground(final String url) {
+		if (!revalidating.add(url)) return;
+		try {
+			ObfuscationExecutors.getExecutor().execute(new Runnable() {
+				public void run() {
+					try {
+						fetch(url);
+					} catch (IOException e) {
+						System.out.println("Could not revalidate entropy from " + url + ", using the cached copy: " + e.getMessage());
+					} finally {
+						revalidating.remove(url);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			revalidating.remove(url);
+		}
+	}
+
+	private static File fetch(final String url) throws IOException {
+		try {
+			return fetches.execute(url, new Callable<File>() {
+				public File call() throws Exception {
+					return download(url);
+				}
+			});
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static File download(String url) throws IOException {
+		File file = getCacheFile(url, ".entropy");
+		Properties meta = file.isFile() ? loadMeta(url) : null;
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			connection.setConnectTimeout(Integer.getInteger(PWB_HTTP_CONNECT_TIMEOUT, 5000).intValue());
+			connection.setReadTimeout(Integer.getInteger(PWB_HTTP_READ_TIMEOUT, 10000).intValue());
+			connection.setUseCaches(false);
+			if (meta != null) {
+				if (meta.getProperty(ETAG) != null) connection.setRequestProperty("If-None-Match", meta.getProperty(ETAG));
+				if (meta.getProperty(LAST_MODIFIED) != null) connection.setIfModifiedSince(Long.parseLong(meta.getProperty(LAST_MODIFIED)));
+			}
+
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && meta != null) {
+				meta.setProperty(FETCHED, String.valueOf(System.currentTimeMillis()));
+				storeMeta(url, meta);
+				return file;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("HTTP " + status + " fetching entropy from " + url);
+			}
+
+			File tmp = File.createTempFile("entropy", ".tmp", file.getParentFile());
+			try {
+				InputStream in = connection.getInputStream();
+				OutputStream out = new FileOutputStream(tmp);
+				try {
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					out.close();
+					in.close();
+				}
+				move(tmp, file);
+			} finally {
+				tmp.delete();
+			}
+
+			meta = new Properties();
+			meta.setProperty(URL_KEY, url);
+			meta.setProperty(FETCHED, String.valueOf(System.currentTimeMillis()));
+			if (connection.getHeaderField("ETag") != null) meta.setProperty(ETAG, connection.getHeaderField("ETag"));
+			if (connection.getLastModified() > 0) meta.setProperty(LAST_MODIFIED, String.valueOf(connection.getLastModified()));
+			storeMeta(url, meta);
+			return file;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static Properties loadMeta(String url) {
+		File file = getCacheFile(url, ".meta");
+		if (!file.isFile()) return null;
+		Properties meta = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				meta.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return meta;
+	}
+
+	private static void storeMeta(String url, Properties meta) throws IOException {
+		File file = getCacheFile(url, ".meta");
+		File tmp = File.createTempFile("entropy", ".tmp", file.getParentFile());
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				meta.store(out, "Entropy cache for " + url);
+			} finally {
+				out.close();
+			}
+			move(tmp, file);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private static void move(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static File getCacheFile(String url, String suffix) {
+		String dir = System.getProperty(PWB_HTTP_CACHE_DIR, System.getProperty("user.home") + "/.org.hoggmania.entropy.cache");
+		File directory = new File(dir);
+		directory.mkdirs();
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] hash = md.digest(url.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for (int i = 0; i < hash.length; i++) {
+				name.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+			}
+			return new File(directory, name.append(suffix).toString());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the values of a JSON document by their path, matched a member or
+ * element at a time while the document is streamed. The paths are either: -
+ * <li>a JSON pointer, e.g. /db/password or /servers/0/password, with ~1 for /
+ * and ~0 for ~ in a name</li>
+ * <li>dot separated names, e.g. db.password, as the property keys</li>
+ * In both a segment of * matches any one name or index, ** any number of
+ * segments and * or ? within a segment are wildcards, e.g. /servers/*&#47;password,
+ * **.password or /db/*_pwd. The regex: keys of {@link KeySelector} are
+ * rejected rather than matching nothing. <br>
+ * The state of a path is a bit set of the segments matched so far, one long
+ * per path per open container, so the memory needed depends on the depth of
+ * the document, not its size.
+ * 
+ * @author james.holland
+ * 
+ */
+final class JsonPathSelector {
+
+	private static final String	ANY		= "**";
+
+	private final String[][]	paths;
+
+	private JsonPathSelector(List<String[]> paths) {
+		this.paths = paths.toArray(new String[paths.size()][]);
+	}
+
+	/**
+	 * @param patterns
+	 *            JSON pointers or dotted paths
+	 * @return the compiled selector
+	 * @throws IllegalArgumentException
+	 *             for a regex: pattern
+	 */
+	static JsonPathSelector compile(String... patterns) {
+		List<String[]> paths = new ArrayList<String[]>();
+		for (String pattern : patterns) {
+			if (pattern == null) continue;
+			pattern = pattern.trim();
+			if (pattern.startsWith(KeySelector.REGEX_PREFIX)) {
+				throw new IllegalArgumentException("JSON paths do not support " + pattern + ", use a glob such as **.password");
+			}
+			String[] segments;
+			if (pattern.length() == 0) {
+				segments = new String[0];
+			} else if (pattern.startsWith("/")) {
+				segments = pattern.substring(1).split("/", -1);
+				for (int i = 0; i < segments.length; i++) {
+					segments[i] = segments[i].replace("~1", "/").replace("~0", "~");
+				}
+			} else {
+				segments = pattern.split("\\.", -1);
+			}
+			if (segments.length > 62) throw new IllegalArgumentException("Too many segments in " + pattern);
+			paths.add(segments);
+		}
+		return new JsonPathSelector(paths);
+	}
+
+	/**
+	 * @return number of paths, the length of a state
+	 */
+	int size() {
+		return paths.length;
+	}
+
+	/**
+	 * @param state
+	 *            set to the state of the document
+	 */
+	void start(long[] state) {
+		for (int p = 0; p < paths.length; p++) {
+			state[p] = close(p, 1L);
+		}
+	}
+
+	/**
+	 * @return true when no path can match the value or anything within it
+	 */
+	static boolean isDead(long[] state, int size) {
+		for (int p = 0; p < size; p++) {
+			if (state[p] != 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param parent
+	 *            state of the container
+	 * @param name
+	 *            of the member or index of the element
+	 * @param state
+	 *            set to the state of the member or element
+	 */
+	void enter(long[] parent, String name, long[] state) {
+		for (int p = 0; p < paths.length; p++) {
+			String[] segments = paths[p];
+			long next = 0;
+			long current = parent[p];
+			for (int i = 0; current != 0 && i < segments.length; i++) {
+				if ((current & (1L << i)) == 0) continue;
+				if (ANY.equals(segments[i])) {
+					next |= 1L << i;
+				} else if (glob(segments[i], 0, name, 0)) {
+					next |= 1L << (i + 1);
+				}
+			}
+			state[p] = close(p, next);
+		}
+	}
+
+	/**
+	 * @return true when a path selects the value of the state
+	 */
+	boolean matched(long[] state) {
+		for (int p = 0; p < paths.length; p++) {
+			if ((state[p] & (1L << paths[p].length)) != 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the states reached by ** matching no segments
+	 */
+	private long close(int p, long state) {
+		String[] segments = paths[p];
+		for (int i = 0; i < segments.length; i++) {
+			if ((state & (1L << i)) != 0 && ANY.equals(segments[i])) state |= 1L << (i + 1);
+		}
+		return state;
+	}
+
+	private static boolean glob(String pattern, int p, String name, int n) {
+		while (p < pattern.length()) {
+			char c = pattern.charAt(p);
+			if (c == '*') {
+				for (int i = n; i <= name.length(); i++) {
+					if (glob(pattern, p + 1, name, i)) return true;
+				}
+				return false;
+			}
+			if (n == name.length() || (c != '?' && c != name.charAt(n))) return false;
+			p++;
+			n++;
+		}
+		return n == name.length();
+	}
+}
@@ -0,0 +1,223 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects property keys by name or pattern. The patterns are compiled once,
+ * exact keys and globs are matched at a cost that depends on the key rather
+ * than on their number, each regular expression is tried in turn. The forms
+ * are: -
+ * <li>an exact key, e.g. db.password, looked up in a hash set</li>
+ * <li>a glob over the dot separated segments of the key, * matches within a
+ * segment, ? one character of a segment and ** any number of segments, e.g.
+ * **.password or db.*.credentials. The globs are merged into one segment
+ * trie that is walked once per key.</li>
+ * <li>regex: followed by a regular expression matching the whole key, each
+ * compiled on its own so groups and back references keep their numbers</li>
+ * 
+ * @author james.holland
+ * 
+ */
+public final class KeySelector {
+
+	public static final String	REGEX_PREFIX	= "regex:";
+
+	private final Set<String>	exact	= new HashSet<String>();
+	private final Node			root	= new Node();
+	private final List<Pattern>	regex	= new ArrayList<Pattern>();
+	private final boolean		globs;
+
+	private KeySelector(Collection<String> patterns) {
+		boolean hasGlobs = false;
+		for (String pattern : patterns) {
+			if (pattern == null || pattern.trim().length() == 0) continue;
+			pattern = pattern.trim();
+			if (pattern.startsWith(REGEX_PREFIX)) {
+				regex.add(Pattern.compile(pattern.substring(REGEX_PREFIX.length())));
+			} else if (isGlob(pattern)) {
+				add(pattern);
+				hasGlobs = true;
+			} else {
+				exact.add(pattern);
+			}
+		}
+		this.globs = hasGlobs;
+	}
+
+	/**
+	 * @param patterns
+	 *            keys and patterns
+	 * @return the compiled selector
+	 */
+	public static KeySelector compile(String... patterns) {
+		List<String> list = new ArrayList<String>(patterns.length);
+		for (String pattern : patterns) {
+			list.add(pattern);
+		}
+		return new KeySelector(list);
+	}
+
+	/**
+	 * @param pattern
+	 * @return true when the entry is a glob or regular expression rather than a
+	 *         key
+	 */
+	public static boolean isPattern(String pattern) {
+		return pattern != null && (pattern.trim().startsWith(REGEX_PREFIX) || isGlob(pattern));
+	}
+
+	private static boolean isGlob(String pattern) {
+		return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0;
+	}
+
+	/**
+	 * @param key
+	 * @return true when the key is selected
+	 */
+	public boolean matches(String key) {
+		if (exact.contains(key)) return true;
+		if (globs && matchesGlobs(key)) return true;
+		for (Pattern pattern : regex) {
+			if (pattern.matcher(key).matches()) return true;
+		}
+		return false;
+	}
+
+	private void add(String glob) {
+		Node node = root;
+		for (String segment : split(glob)) {
+			if (segment.equals("**")) {
+				if (node.any == null) node.any = new Node();
+				node = node.any;
+				node.loop = true;
+			} else if (isGlob(segment)) {
+				Node child = node.wildcards.get(segment);
+				if (child == null) {
+					child = new Node();
+					node.wildcards.put(segment, child);
+				}
+				node = child;
+			} else {
+				Node child = node.literals.get(segment);
+				if (child == null) {
+					child = new Node();
+					node.literals.put(segment, child);
+				}
+				node = child;
+			}
+		}
+		node.terminal = true;
+	}
+
+	/**
+	 * Walks the trie with the set of nodes reached so far, one segment of the
+	 * key at a time
+	 */
+	private boolean matchesGlobs(String key) {
+		Set<Node> states = newStates();
+		closure(root, states);
+		int start = 0;
+		while (!states.isEmpty()) {
+			int end = key.indexOf('.', start);
+			String segment = end < 0 ? key.substring(start) : key.substring(start, end);
+			Set<Node> next = newStates();
+			for (Node state : states) {
+				if (state.loop) next.add(state);
+				Node child = state.literals.get(segment);
+				if (child != null) closure(child, next);
+				for (Map.Entry<String, Node> wildcard : state.wildcards.entrySet()) {
+					if (matchesSegment(wildcard.getKey(), 0, segment, 0)) closure(wildcard.getValue(), next);
+				}
+			}
+			states = next;
+			if (end < 0) break;
+			start = end + 1;
+		}
+		for (Node state : states) {
+			if (state.terminal) return true;
+		}
+		return false;
+	}
+
+	private static Set<Node> newStates() {
+		return Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+	}
+
+	/**
+	 * Adds the node and, as ** matches no segment too, the nodes after it
+	 */
+	private static void closure(Node node, Set<Node> states) {
+		while (node != null && states.add(node)) {
+			node = node.any;
+		}
+	}
+
+	/**
+	 * Glob match of one segment with * and ?
+	 */
+	private static boolean matchesSegment(String glob, int g, String segment, int s) {
+		while (g < glob.length()) {
+			char c = glob.charAt(g);
+			if (c == '*') {
+				for (int i = s; i <= segment.length(); i++) {
+					if (matchesSegment(glob, g + 1, segment, i)) return true;
+				}
+				return false;
+			}
+			if (s == segment.length() || (c != '?' && c != segment.charAt(s))) return false;
+			g++;
+			s++;
+		}
+		return s == segment.length();
+	}
+
+	private static List<String> split(String key) {
+		List<String> segments = new ArrayList<String>();
+		int start = 0;
+		int end;
+		while ((end = key.indexOf('.', start)) >= 0) {
+			segments.add(key.substring(start, end));
+			start = end + 1;
+		}
+		segments.add(key.substring(start));
+		return segments;
+	}
+
+	/**
+	 * A position in the globs, children are keyed by segment
+	 */
+	private static final class Node {
+		private final Map<String, Node>	literals	= new HashMap<String, Node>();
+		private final Map<String, Node>	wildcards	= new HashMap<String, Node>();
+		private Node					any;
+		private boolean					loop;
+		private boolean					terminal;
+	}
+}
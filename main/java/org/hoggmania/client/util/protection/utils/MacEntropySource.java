@@ -0,0 +1,50 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.EntropySource;
+
+/**
+ * The MAC addresses found by {@link FindNetworkEntropy} without separators
+ * 
+ * @author james.holland
+ * 
+ */
+public class MacEntropySource implements EntropySource {
+
+	public static final String NAME = "mac";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public Collection<String> getParameterNames() {
+		return Collections.emptyList();
+	}
+
+	public String getEntropy(Map<String, String> parameters, List<File> files) {
+		return FindNetworkEntropy.getNetworkEntropy().replace("-", "").replace(":", "");
+	}
+}
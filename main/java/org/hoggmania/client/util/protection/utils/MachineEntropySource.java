@@ -0,0 +1,143 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.hoggmania.client.util.protection.EntropySource;
+
+/**
+ * The Linux machine identity read directly from the file system, see
+ * {@link org.hoggmania.client.util.protection.PassphraseObfuscatorMachine}
+ * for the parameters
+ * 
+ * @author james.holland
+ * 
+ */
+public class MachineEntropySource implements EntropySource {
+
+	public static final String	NAME							= "machine-id";
+	public static final String	PWB_MACHINE_INTERFACE_INCLUDE	= "PWB_MACHINE_INTERFACE_INCLUDE";
+	public static final String	PWB_MACHINE_INTERFACE_EXCLUDE	= "PWB_MACHINE_INTERFACE_EXCLUDE";
+	public static final String	PWB_MACHINE_DMI					= "PWB_MACHINE_DMI";
+	public static final String	PWB_MACHINE_ROOT				= "PWB_MACHINE_ROOT";
+
+	public static final String	INTERFACE_EXCLUDE_DEFAULT		= "lo|ifb.*|dummy.*|veth.*|docker.*|br-.*|virbr.*|vnet.*|cni.*|flannel.*|cali.*|weave.*|tun.*|tap.*|wg.*";
+
+	private static final String[]	MACHINE_ID		= { "etc/machine-id", "var/lib/dbus/machine-id" };
+	private static final String		NET				= "sys/class/net";
+	private static final String		DMI				= "sys/class/dmi/id";
+	private static final Charset	ASCII			= Charset.forName("US-ASCII");
+	private static final String		NO_ADDRESS		= "000000000000";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public Collection<String> getParameterNames() {
+		return Arrays.asList(PWB_MACHINE_INTERFACE_INCLUDE, PWB_MACHINE_INTERFACE_EXCLUDE, PWB_MACHINE_DMI, PWB_MACHINE_ROOT);
+	}
+
+	public String getEntropy(Map<String, String> map, List<File> files) throws IOException {
+		Path root = Paths.get(ObfuscateSecretsHelper.getMapValue(map, PWB_MACHINE_ROOT, "/", false));
+		Pattern include = Pattern.compile(ObfuscateSecretsHelper.getMapValue(map, PWB_MACHINE_INTERFACE_INCLUDE, ".*", false));
+		Pattern exclude = Pattern.compile(ObfuscateSecretsHelper.getMapValue(map, PWB_MACHINE_INTERFACE_EXCLUDE, INTERFACE_EXCLUDE_DEFAULT, false));
+		String dmi = ObfuscateSecretsHelper.getMapValue(map, PWB_MACHINE_DMI, null, true);
+
+		StringBuilder entropy = new StringBuilder();
+		for (String name : MACHINE_ID) {
+			Path file = root.resolve(name);
+			String id = read(file);
+			if (id != null) {
+				files.add(file.toFile());
+				entropy.append(id);
+				break;
+			}
+		}
+
+		for (String address : getAddresses(root.resolve(NET), include, exclude)) {
+			entropy.append(address);
+		}
+
+		if (dmi != null) {
+			for (String name : dmi.split(",")) {
+				if (name.trim().length() == 0) continue;
+				String value = read(root.resolve(DMI).resolve(name.trim()));
+				if (value == null) throw new RuntimeException("Cannot read " + DMI + "/" + name.trim() + " for " + PWB_MACHINE_DMI);
+				entropy.append(value);
+			}
+		}
+
+		return entropy.toString();
+	}
+
+	/**
+	 * Hardware addresses of the interfaces passing the filter, sorted by
+	 * interface name so the order is stable between boots.
+	 */
+	private static List<String> getAddresses(Path net, Pattern include, Pattern exclude) throws IOException {
+		List<String> names = new ArrayList<String>();
+		if (!Files.isDirectory(net)) return names;
+		DirectoryStream<Path> interfaces = Files.newDirectoryStream(net);
+		try {
+			for (Path path : interfaces) {
+				String name = path.getFileName().toString();
+				if (include.matcher(name).matches() && !exclude.matcher(name).matches()) names.add(name);
+			}
+		} finally {
+			interfaces.close();
+		}
+		Collections.sort(names);
+
+		List<String> addresses = new ArrayList<String>(names.size());
+		for (String name : names) {
+			String address = read(net.resolve(name).resolve("address"));
+			if (address == null) continue;
+			address = address.replace(":", "").toLowerCase();
+			if (address.length() > 0 && !address.equals(NO_ADDRESS)) addresses.add(address);
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return the trimmed content, null when the file is missing, unreadable
+	 *         or blank
+	 */
+	private static String read(Path file) {
+		try {
+			String value = new String(Files.readAllBytes(file), ASCII).trim();
+			return value.length() == 0 ? null : value;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -18,23 +18,54 @@
 */
 package org.hoggmania.client.util.protection.utils;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
 
 import org.hoggmania.client.util.protection.EncryptedInfo;
 import org.hoggmania.client.util.protection.ObfuscatorInf;
 import org.hoggmania.client.util.protection.PassphraseObfuscatorFactory;
 import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -42,48 +73,156 @@ import org.w3c.dom.NodeList;
 
 public class ObfuscateSecretInXML
 {
+  /**
+   * true to stream the file through StAX rather than load it into a DOM
+   */
+  public static final String PWB_XML_STREAMING = "PWB_XML_STREAMING";
+  
   private static Map<String, String> map = new HashMap<String, String> ();
   
   public ObfuscateSecretInXML() {}
   
-  private static void encryptedByElementSearch(Document doc, String expression, String attributeName, boolean obfuscate)
+  /**
+   * Applies every rule to the document, the streamable rules together in one
+   * walk of the elements in document order and the others by evaluating
+   * their compiled XPath expression. The values matched are collected and
+   * transformed together, in parallel when enabled, then set in document
+   * order. A value matched by several rules is changed once.
+   */
+  private static int encryptedByElementSearch(Document doc, XmlRules rules, boolean obfuscate, ObfuscatorInf pg)
     throws Exception
   {
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xpath = factory.newXPath();
-    XPathExpression expr = xpath.compile(expression);
-    Object result = expr.evaluate(doc, XPathConstants.NODESET);
-    NodeList nodes = (NodeList)result;
-    for (int i = 0; i < nodes.getLength(); i++) {
-      Node node = nodes.item(i);
-      if (node == null) {
-        return;
-      }
-      if (attributeName == null) {
-        if (obfuscate) {
-          node.setTextContent(encrypt(node.getTextContent()));
-        } else {
-          node.setTextContent(decrypt(node.getTextContent()));
+    int n = rules.size();
+    boolean walk = false;
+    for (int r = 0; r < n; r++) {
+      walk |= rules.getPath(r) != null;
+    }
+    Targets targets = new Targets();
+    Node node = walk ? doc.getDocumentElement() : null;
+    long[] states = new long[n * 16];
+    for (int r = 0; r < n; r++) {
+      states[r] = rules.getPath(r) == null ? 0 : rules.getPath(r).start();
+    }
+    int depth = 0;
+    while (node != null) {
+      if ((depth + 2) * n > states.length) {
+        long[] grown = new long[states.length * 2];
+        System.arraycopy(states, 0, grown, 0, states.length);
+        states = grown;
+      }
+      Element element = (Element)node;
+      int parent = depth * n;
+      boolean text = false;
+      for (int r = 0; r < n; r++) {
+        XmlStreamPath path = rules.getPath(r);
+        if (path == null) {
+          continue;
+        }
+        states[parent + n + r] = path.enter(states[parent + r], element);
+        if (path.matched(states[parent + n + r])) {
+          text |= targets.add(element, rules.getAttributeName(r));
         }
       }
-      else {
-        NamedNodeMap attrs = node.getAttributes();
-        Node attr = attrs.getNamedItem(attributeName);
-        if (attr != null) {
-          if (obfuscate) {
-            attr.setNodeValue(encrypt(attr.getNodeValue()));
-          } else {
-            attr.setNodeValue(decrypt(attr.getNodeValue()));
-          }
+      
+      // The children of an element whose text is set are replaced by the text
+      Node child = text ? null : nextElement(node.getFirstChild());
+      if (child != null) {
+        depth++;
+        node = child;
+        continue;
+      }
+      while (true) {
+        Node sibling = nextElement(node.getNextSibling());
+        if (sibling != null) {
+          node = sibling;
+          break;
+        }
+        if (depth == 0) {
+          node = null;
+          break;
         }
+        node = node.getParentNode();
+        depth--;
       }
     }
+    for (int r = 0; r < n; r++) {
+      if (rules.getPath(r) != null) {
+        continue;
+      }
+      NodeList nodes = (NodeList)rules.getXPath(r).evaluate(doc, XPathConstants.NODESET);
+      for (int i = 0; i < nodes.getLength(); i++) {
+        Node found = nodes.item(i);
+        if (found == null) {
+          break;
+        }
+        targets.add(found, rules.getAttributeName(r));
+      }
+    }
+    return targets.change(obfuscate, pg);
+  }
+  
+  private static Node nextElement(Node node) {
+    while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+      node = node.getNextSibling();
+    }
+    return node;
   }
   
-  private static String encrypt(String text) throws Exception
+  /**
+   * The nodes whose value is changed, each once, in the order first matched
+   */
+  private static final class Targets
   {
-    ObfuscatorInf pg = PassphraseObfuscatorFactory.getAdapter(map);
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Set<Node> added = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+    
+    /**
+     * @return true when the text of the node is changed
+     */
+    boolean add(Node node, String attributeName) {
+      Node target = node;
+      if (attributeName != null) {
+        target = node.getAttributes().getNamedItem(attributeName);
+        if (target == null) {
+          return false;
+        }
+      }
+      if (added.add(target)) {
+        nodes.add(target);
+      }
+      return attributeName == null;
+    }
     
+    /**
+     * @return number of values changed
+     */
+    int change(final boolean obfuscate, final ObfuscatorInf pg)
+      throws Exception
+    {
+      List<Callable<String>> tasks = new ArrayList<Callable<String>>(nodes.size());
+      for (Node node : nodes) {
+        final String value = node.getNodeType() == Node.ATTRIBUTE_NODE ? node.getNodeValue() : node.getTextContent();
+        tasks.add(new Callable<String>() {
+          public String call() throws Exception {
+            return obfuscate ? encrypt(value, pg) : decrypt(value);
+          }
+        });
+      }
+      List<String> values = ParallelValues.apply(tasks);
+      for (int i = 0; i < nodes.size(); i++) {
+        Node node = nodes.get(i);
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE) {
+          node.setNodeValue(values.get(i));
+        } else {
+          node.setTextContent(values.get(i));
+        }
+      }
+      return nodes.size();
+    }
+  }
+  
+  private static String encrypt(String text, ObfuscatorInf pg) throws Exception
+  {
     EncryptedInfo sec = pg.encrypt(text.getBytes());
     String encryptedPropValue = ObfuscateSecretsHelper.writeObfuscatedSecret(sec);
     
@@ -108,9 +247,30 @@ public class ObfuscateSecretInXML
     return doc;
   }
   
+  /**
+   * Serialises the document to a temporary file that replaces the original,
+   * so the original is untouched when serialising fails
+   */
   private static void saveDocument(Document document, String file) throws Exception
   {
-    FileWriter fw = new FileWriter(file);
+    // A link is kept, the file it points to is replaced
+    Path target = Paths.get(file).toRealPath();
+    Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      FileWriter fw = new FileWriter(temp.toFile());
+      try {
+        serialize(document, fw);
+      } finally {
+        fw.close();
+      }
+      ObfuscateSecretsHelper.replaceFile(temp, target);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+  
+  private static void serialize(Document document, Writer fw) throws Exception
+  {
     Class<?> clazz = null;
     if (System.getProperty("java.vendor").startsWith("Sun")) {
       clazz = Class.forName("com.sun.org.apache.xml.internal.serialize.XMLSerializer");
@@ -118,13 +278,172 @@ public class ObfuscateSecretInXML
     else if (System.getProperty("java.vendor").startsWith("IBM")) {
       clazz = Class.forName("org.apache.xml.serialize.XMLSerializer");
     }
+    if (clazz == null) {
+      // Any other vendor, use the standard JAXP serialiser
+      Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      // The transformer only writes a DOCTYPE it is given
+      DocumentType doctype = document.getDoctype();
+      if (doctype != null) {
+        if (doctype.getPublicId() != null) {
+          transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, doctype.getPublicId());
+        }
+        if (doctype.getSystemId() != null) {
+          transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, doctype.getSystemId());
+        }
+      }
+      transformer.transform(new DOMSource(document), new StreamResult(fw));
+      return;
+    }
     Object o = clazz.newInstance();
     Method method1 = o.getClass().getMethod("setOutputCharStream", new Class[] { Writer.class });
     Method method2 = o.getClass().getMethod("serialize", new Class[] { Document.class });
     method1.invoke(o, new Object[] { fw });
     method2.invoke(o, new Object[] { document });
-    
-    fw.close();
+  }
+  
+  /**
+   * A reader that never loads external entities or DTDs, the DTD and entity
+   * references are passed through as written rather than expanded
+   */
+  private static XMLInputFactory newInputFactory()
+  {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+    factory.setXMLResolver(new XMLResolver() {
+      public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
+        return new ByteArrayInputStream(new byte[0]);
+      }
+    });
+    return factory;
+  }
+  
+  /**
+   * Rewrites the matched values of the events read into the writer, the
+   * text of a matched element is collected and written back as one text
+   * node as setTextContent does
+   */
+  private static int streamEvents(XMLEventReader reader, OutputStream out, XmlRules rules, boolean obfuscate, ObfuscatorInf pg)
+    throws Exception
+  {
+    XMLEventFactory events = XMLEventFactory.newInstance();
+    XMLEventWriter writer = null;
+    int n = rules.size();
+    long[] states = new long[n * 32];
+    int depth = 0;
+    for (int r = 0; r < n; r++) {
+      states[r] = rules.getPath(r).start();
+    }
+    Set<String> replaced = new HashSet<String>();
+    boolean text;
+    int count = 0;
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartDocument()) {
+        StartDocument document = (StartDocument)event;
+        String encoding = document.encodingSet() ? document.getCharacterEncodingScheme() : "UTF-8";
+        writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, encoding);
+        writer.add(event);
+        continue;
+      }
+      if (event.isStartElement()) {
+        StartElement read = event.asStartElement();
+        StartElement start = read;
+        if ((++depth + 1) * n > states.length) {
+          long[] grown = new long[states.length * 2];
+          System.arraycopy(states, 0, grown, 0, states.length);
+          states = grown;
+        }
+        replaced.clear();
+        text = false;
+        int parent = (depth - 1) * n;
+        for (int r = 0; r < n; r++) {
+          XmlStreamPath path = rules.getPath(r);
+          states[parent + n + r] = path.enter(states[parent + r], read);
+          if (!path.matched(states[parent + n + r])) {
+            continue;
+          }
+          if (rules.getAttributeName(r) == null) {
+            text = true;
+            continue;
+          }
+          if (!replaced.add(rules.getAttributeName(r))) {
+            // Already changed by another rule
+            continue;
+          }
+          StartElement changed = replaceAttribute(events, start, rules.getAttributeName(r), obfuscate, pg);
+          if (changed != start) {
+            count++;
+            start = changed;
+          }
+        }
+        writer.add(start);
+        if (!text) {
+          continue;
+        }
+        StringBuilder value = new StringBuilder();
+        int nested = 0;
+        while (true) {
+          XMLEvent child = reader.nextEvent();
+          if (child.isCharacters()) {
+            value.append(child.asCharacters().getData());
+          } else if (child.isEntityReference()) {
+            // The value is written back as one text node so the entity is expanded
+            EntityReference reference = (EntityReference)child;
+            EntityDeclaration declaration = reference.getDeclaration();
+            if (declaration != null && declaration.getReplacementText() != null) {
+              value.append(declaration.getReplacementText());
+            } else {
+              value.append('&').append(reference.getName()).append(';');
+            }
+          } else if (child.isStartElement()) {
+            nested++;
+          } else if (child.isEndElement() && nested-- == 0) {
+            writer.add(events.createCharacters(obfuscate ? encrypt(value.toString(), pg) : decrypt(value.toString())));
+            count++;
+            writer.add(child);
+            break;
+          }
+        }
+        depth--;
+        continue;
+      } else if (event.isEndElement()) {
+        depth--;
+      }
+      writer.add(event);
+    }
+    if (writer != null) {
+      writer.flush();
+      writer.close();
+    }
+    return count;
+  }
+  
+  /**
+   * @return the element with the value of the attribute replaced, the same
+   *         element when it does not have the attribute
+   */
+  @SuppressWarnings("unchecked")
+  private static StartElement replaceAttribute(XMLEventFactory events, StartElement start, String attributeName, boolean obfuscate, ObfuscatorInf pg)
+    throws Exception
+  {
+    List<Attribute> attributes = new ArrayList<Attribute>();
+    boolean found = false;
+    for (Iterator<Attribute> it = start.getAttributes(); it.hasNext();) {
+      Attribute attr = it.next();
+      String prefix = attr.getName().getPrefix();
+      String name = prefix == null || prefix.length() == 0 ? attr.getName().getLocalPart() : prefix + ":" + attr.getName().getLocalPart();
+      if (!found && name.equals(attributeName)) {
+        String value = obfuscate ? encrypt(attr.getValue(), pg) : decrypt(attr.getValue());
+        attr = events.createAttribute(attr.getName(), value);
+        found = true;
+      }
+      attributes.add(attr);
+    }
+    if (!found) {
+      return start;
+    }
+    return events.createStartElement(start.getName(), attributes.iterator(), start.getNamespaces());
   }
   
   private static void printUsage()
@@ -132,24 +451,154 @@ public class ObfuscateSecretInXML
     System.out.println("Usage: ObfuscateSecretInXML <xml file> <true/false true=obfuscate false=de-ofuscate> <xpath expression>");
     
     System.out.println("       ObfuscateSecretInXML <xml-file> <true/false true=obfuscate false=de-ofuscate> <xpath expression> <attribute name>");
+    
+    System.out.println("       ObfuscateSecretInXML <xml-file> <true/false true=obfuscate false=de-ofuscate> @<rules file>");
+  }
+  
+  /**
+   * Obfuscates or de-obfuscates the text of the elements, or their attribute
+   * when given, found by the XPath expression and saves the file
+   * 
+   * @param file
+   * @param expression
+   *          XPath expression of the elements
+   * @param attributeName
+   *          the attribute to change, null for the element text
+   * @param map
+   *          dictates which obfuscater is used
+   * @param obfuscate
+   * @return number of values changed
+   * @throws Exception
+   */
+  public static int processFile(String file, String expression, String attributeName, Map<String, String> map, boolean obfuscate)
+    throws Exception
+  {
+    return processFile(file, XmlRules.of(expression, attributeName), map, obfuscate);
+  }
+  
+  /**
+   * Obfuscates or de-obfuscates the values of every rule with one parse and
+   * one walk of the document and saves the file when a value was changed
+   * 
+   * @param file
+   * @param rules
+   *          compiled once and reused for every file
+   * @param map
+   *          dictates which obfuscater is used
+   * @param obfuscate
+   * @return number of values changed
+   * @throws Exception
+   */
+  public static int processFile(String file, XmlRules rules, Map<String, String> map, boolean obfuscate)
+    throws Exception
+  {
+    if (Boolean.getBoolean(PWB_XML_STREAMING)) {
+      return streamFile(file, rules, map, obfuscate);
+    }
+    Document doc = loadDocument(file);
+    ObfuscatorInf pg = obfuscate ? PassphraseObfuscatorFactory.getAdapter(map) : null;
+    int count = encryptedByElementSearch(doc, rules, obfuscate, pg);
+    if (count > 0) {
+      saveDocument(doc, file);
+    }
+    return count;
+  }
+  
+  /**
+   * As processFile but streams the file through StAX in constant memory, for
+   * files too large to load into a DOM. Only the XPath subset of
+   * {@link XmlStreamPath} is supported, e.g. //Resource, /Server//Resource
+   * or //Resource[@type='javax.sql.DataSource']/@password. The file is
+   * written to a temporary file and moved over the original.
+   * 
+   * @param file
+   * @param expression
+   *          XPath expression of the elements
+   * @param attributeName
+   *          the attribute to change, null for the element text or the
+   *          attribute of the expression
+   * @param map
+   *          dictates which obfuscater is used
+   * @param obfuscate
+   * @return number of values changed
+   * @throws Exception
+   */
+  public static int streamFile(String file, String expression, String attributeName, Map<String, String> map, boolean obfuscate)
+    throws Exception
+  {
+    return streamFile(file, XmlRules.of(expression, attributeName), map, obfuscate);
+  }
+  
+  /**
+   * As processFile but streams the file through StAX in constant memory,
+   * applying every rule in the one pass
+   * 
+   * @param file
+   * @param rules
+   *          all within the streaming subset
+   * @param map
+   *          dictates which obfuscater is used
+   * @param obfuscate
+   * @return number of values changed
+   * @throws Exception
+   */
+  public static int streamFile(String file, XmlRules rules, Map<String, String> map, boolean obfuscate)
+    throws Exception
+  {
+    for (int r = 0; r < rules.size(); r++) {
+      if (rules.getPath(r) == null) {
+        // Throws the reason the rule cannot be streamed
+        XmlStreamPath.compile(rules.getExpression(r));
+      }
+    }
+    ObfuscatorInf pg = obfuscate ? PassphraseObfuscatorFactory.getAdapter(map) : null;
+    
+    // A link is kept, the file it points to is replaced
+    Path target = Paths.get(file).toRealPath();
+    Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      int count;
+      InputStream in = new BufferedInputStream(Files.newInputStream(target));
+      try {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp));
+        try {
+          XMLEventReader reader = newInputFactory().createXMLEventReader(in);
+          try {
+            count = streamEvents(reader, out, rules, obfuscate, pg);
+          } finally {
+            reader.close();
+          }
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+      // The writer normalises the markup, a file without matches is left as is
+      if (count > 0) {
+        ObfuscateSecretsHelper.replaceFile(temp, target);
+      }
+      return count;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
   }
   
   public static void main(String[] args)
     throws Exception
   {
-    if (args.length < 4) {
+    if (args.length < 3) {
       printUsage();
     } else {
-      Document doc = loadDocument(args[0]);
-      
       boolean obfuscate = Boolean.parseBoolean(args[1]);
       
-      if (args.length > 3) {
-        encryptedByElementSearch(doc, args[2], args[3], obfuscate);
+      if (args[2].startsWith("@")) {
+        processFile(args[0], XmlRules.load(args[2].substring(1)), map, obfuscate);
+      } else if (args.length > 3) {
+        processFile(args[0], args[2], args[3], map, obfuscate);
       } else {
-        encryptedByElementSearch(doc, args[2], null, obfuscate);
+        processFile(args[0], args[2], null, map, obfuscate);
       }
-      saveDocument(doc, args[0]);
     }
   }
 }
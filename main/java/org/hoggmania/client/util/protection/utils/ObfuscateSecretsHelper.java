@@ -18,10 +18,36 @@
 */
 package org.hoggmania.client.util.protection.utils;
 
-
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import org.hoggmania.client.util.protection.DecryptResult;
 import org.hoggmania.client.util.protection.EncryptedInfo;
 import org.hoggmania.client.util.protection.ObfuscatePlain;
 import org.hoggmania.client.util.protection.ObfuscatorInf;
@@ -38,6 +64,16 @@ import com.migcomponents.migbase64.Base64;
  */
 public class ObfuscateSecretsHelper {
 
+	public static final String PWB_PARALLELISM = "PWB_PARALLELISM";
+
+	/**
+	 * true to encrypt the values of a document in parallel on the shared pool,
+	 * the document written is the same as the sequential one
+	 */
+	public static final String PWB_PARALLEL_VALUES = "PWB_PARALLEL_VALUES";
+
+	private static final ConcurrentHashMap<String, CompletableFuture<String>> inflight = new ConcurrentHashMap<String, CompletableFuture<String>>();
+
 	public static EncryptedInfo parseObfuscatedSecret(final String encodedSecret) throws Exception {
 		return parseObfuscatedSecret(encodedSecret, true);
 	}
@@ -203,6 +239,24 @@ public class ObfuscateSecretsHelper {
 
 	}
 
+	/**
+	 * Normalises a parameter map so equivalent parameter sets compare equal.
+	 * The PWB_IMPLEMENTATION entry is dropped as it is not written with the
+	 * obfuscated value.
+	 * 
+	 * @param map
+	 *            containing the key/value pairs, may be null
+	 * @return sorted unmodifiable copy, empty when there are no parameters
+	 */
+	public static Map<String, String> normalizeParameters(Map<String, String> map) {
+		TreeMap<String, String> result = new TreeMap<String, String>();
+		if (map != null) {
+			result.putAll(map);
+			result.remove(ObfuscatorInf.PWB_IMPLEMENTATION);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
 	/**
 	 * @param secret
 	 * @return
@@ -213,6 +267,145 @@ public class ObfuscateSecretsHelper {
 		return new String(pg.decrypt(secret));
 	}
 
+	/**
+	 * De-obfuscates many secrets at once. The secrets are grouped by
+	 * implementation code and parameters so each group is handed to one
+	 * adapter and shares the key derivation. A failure is reported against
+	 * the secret and does not stop the rest.
+	 * 
+	 * @param secrets
+	 * @return a result per secret in the same order
+	 */
+	public static List<DecryptResult> deObfuscateAll(Collection<EncryptedInfo> secrets) {
+		List<EncryptedInfo> values = new ArrayList<EncryptedInfo>(secrets);
+		DecryptResult[] results = new DecryptResult[values.size()];
+		for (List<Integer> group : groupSecrets(values, results)) {
+			fill(results, group, decryptGroup(values, group));
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * De-obfuscates many secrets at once as {@link #deObfuscateAll(Collection)}
+	 * with the groups decrypted in parallel on a shared ForkJoinPool. The
+	 * parallelism is set by the system option (-D) PWB_PARALLELISM and
+	 * defaults to the number of processors.
+	 * 
+	 * @param secrets
+	 * @return a result per secret in the same order
+	 */
+	public static List<DecryptResult> deObfuscateAllParallel(Collection<EncryptedInfo> secrets) {
+		return deObfuscateAll(secrets, ParallelPool.POOL);
+	}
+
+	/**
+	 * De-obfuscates many secrets at once as {@link #deObfuscateAll(Collection)}
+	 * with the groups, and so the key derivations, decrypted in parallel on the
+	 * executor. The results are the same as the sequential version.
+	 * 
+	 * @param secrets
+	 * @param executor
+	 *            to run the groups on
+	 * @return a result per secret in the same order
+	 */
+	public static List<DecryptResult> deObfuscateAll(Collection<EncryptedInfo> secrets, ExecutorService executor) {
+		final List<EncryptedInfo> values = new ArrayList<EncryptedInfo>(secrets);
+		final DecryptResult[] results = new DecryptResult[values.size()];
+		List<List<Integer>> groups = groupSecrets(values, results);
+		if (groups.size() < 2) {
+			for (List<Integer> group : groups) fill(results, group, decryptGroup(values, group));
+			return Arrays.asList(results);
+		}
+
+		List<Future<List<DecryptResult>>> futures = new ArrayList<Future<List<DecryptResult>>>(groups.size());
+		for (final List<Integer> group : groups) {
+			futures.add(executor.submit(new Callable<List<DecryptResult>>() {
+				public List<DecryptResult> call() {
+					return decryptGroup(values, group);
+				}
+			}));
+		}
+		// Only this thread writes the results, a cancelled group cannot race it
+		boolean interrupted = false;
+		for (int g = 0; g < futures.size(); g++) {
+			Future<List<DecryptResult>> future = futures.get(g);
+			if (interrupted) {
+				future.cancel(true);
+				continue;
+			}
+			try {
+				fill(results, groups.get(g), future.get());
+			} catch (InterruptedException e) {
+				interrupted = true;
+				future.cancel(true);
+			} catch (ExecutionException e) {
+				Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				for (Integer index : groups.get(g)) results[index] = new DecryptResult(values.get(index), null, cause);
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			for (int i = 0; i < results.length; i++) {
+				if (results[i] == null) results[i] = new DecryptResult(values.get(i), null, new InterruptedException("Batch de-obfuscation interrupted"));
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Groups the secrets by code and normalised parameters, a null secret is
+	 * failed straight away.
+	 */
+	private static List<List<Integer>> groupSecrets(List<EncryptedInfo> values, DecryptResult[] results) {
+		Map<List<Object>, List<Integer>> groups = new LinkedHashMap<List<Object>, List<Integer>>();
+		for (int i = 0; i < results.length; i++) {
+			EncryptedInfo info = values.get(i);
+			if (info == null) {
+				results[i] = new DecryptResult(info, null, new RuntimeException("EncryptedInfo is null"));
+				continue;
+			}
+			List<Object> key = Arrays.<Object>asList(info.getCode(), normalizeParameters(info.getParameters()));
+			List<Integer> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<Integer>();
+				groups.put(key, group);
+			}
+			group.add(i);
+		}
+		return new ArrayList<List<Integer>>(groups.values());
+	}
+
+	private static List<DecryptResult> decryptGroup(List<EncryptedInfo> values, List<Integer> group) {
+		List<EncryptedInfo> members = new ArrayList<EncryptedInfo>(group.size());
+		for (Integer index : group) members.add(values.get(index));
+		List<DecryptResult> decrypted;
+		try {
+			decrypted = PassphraseObfuscatorFactory.getAdapter(members.get(0)).decryptBatch(members);
+		} catch (Exception e) {
+			decrypted = new ArrayList<DecryptResult>(members.size());
+			for (EncryptedInfo info : members) decrypted.add(new DecryptResult(info, null, e));
+		}
+		return decrypted;
+	}
+
+	private static void fill(DecryptResult[] results, List<Integer> group, List<DecryptResult> decrypted) {
+		for (int i = 0; i < group.size(); i++) results[group.get(i)] = decrypted.get(i);
+	}
+
+	/**
+	 * Shared pool for parallel de-obfuscation, created on first use
+	 */
+	private static final class ParallelPool {
+		static final ForkJoinPool POOL = new ForkJoinPool(Integer.getInteger(PWB_PARALLELISM, Runtime.getRuntime().availableProcessors()).intValue());
+	}
+
+	/**
+	 * @return the shared pool for parallel work, sized by PWB_PARALLELISM
+	 */
+	static ForkJoinPool getParallelPool() {
+		return ParallelPool.POOL;
+	}
+
 	/**
 	 * 
 	 * @param secret
@@ -223,6 +416,59 @@ public class ObfuscateSecretsHelper {
 		return ObfuscateSecretsHelper.deObfuscate(ObfuscateSecretsHelper.parseObfuscatedSecret(secret, true));
 	}
 	
+	/**
+	 * Parses and de-obfuscates a secret without blocking the caller, the work
+	 * runs on {@link ObfuscationExecutors#getExecutor()}. Concurrent requests
+	 * for the same secret share one de-obfuscation.
+	 * 
+	 * @param secret
+	 * @return future of the plain text
+	 */
+	public static CompletableFuture<String> parseObfuscatedSecretAndDecryptAsync(String secret) {
+		return parseObfuscatedSecretAndDecryptAsync(secret, ObfuscationExecutors.getExecutor());
+	}
+
+	/**
+	 * Parses and de-obfuscates a secret on the executor. Concurrent requests
+	 * for the same secret share one de-obfuscation.
+	 * 
+	 * @param secret
+	 * @param executor
+	 *            to run the de-obfuscation on
+	 * @return future of the plain text
+	 */
+	public static CompletableFuture<String> parseObfuscatedSecretAndDecryptAsync(final String secret, final Executor executor) {
+		if (secret == null) throw new RuntimeException("Secret is null");
+		CompletableFuture<String> future = inflight.get(secret);
+		if (future == null) {
+			CompletableFuture<String> created = new CompletableFuture<String>();
+			future = inflight.putIfAbsent(secret, created);
+			if (future == null) {
+				future = created;
+				created.whenComplete(new BiConsumer<String, Throwable>() {
+					public void accept(String value, Throwable error) {
+						inflight.remove(secret, created);
+					}
+				});
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								created.complete(parseObfuscatedSecretAndDecrypt(secret));
+							} catch (Throwable e) {
+								created.completeExceptionally(e);
+							}
+						}
+					});
+				} catch (RuntimeException e) {
+					created.completeExceptionally(e);
+				}
+			}
+		}
+		// A dependent future so one caller cannot complete or cancel the shared one
+		return future.thenApply(Function.<String>identity());
+	}
+
 	/**
 	 * 
 	 * @param secret
@@ -246,6 +492,57 @@ public class ObfuscateSecretsHelper {
 	public static String obfuscatedSecretAndWrite(String plainText, Map<String,String> map) throws Exception {
 		return writeObfuscatedSecret(obfuscate(plainText, map));
 	}
+
+	/**
+	 * Replaces the target with the file written next to it, atomically where
+	 * the file system allows, so a reader never sees a half written file. The
+	 * permissions and owner of an existing target are copied to the written
+	 * file first, a temporary file is only readable by its creator.
+	 * 
+	 * @param written
+	 *            the new content, in the same directory as the target
+	 * @param target
+	 * @throws IOException
+	 */
+	public static void replaceFile(Path written, Path target) throws IOException {
+		if (Files.exists(target)) copyAttributes(target, written);
+		try {
+			Files.move(written, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(written, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Copies the POSIX permissions, group and owner, or the ACL where POSIX
+	 * is not supported. The owner is left as is when the process is not
+	 * allowed to change it.
+	 */
+	private static void copyAttributes(Path from, Path to) throws IOException {
+		PosixFileAttributeView posix = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+		if (posix != null) {
+			PosixFileAttributes attributes = posix.readAttributes();
+			PosixFileAttributeView view = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+			view.setPermissions(attributes.permissions());
+			try {
+				view.setGroup(attributes.group());
+				view.setOwner(attributes.owner());
+			} catch (FileSystemException e) {
+				// Only a privileged process may give the file away
+			}
+			return;
+		}
+		AclFileAttributeView acl = Files.getFileAttributeView(from, AclFileAttributeView.class);
+		if (acl != null) {
+			AclFileAttributeView view = Files.getFileAttributeView(to, AclFileAttributeView.class);
+			view.setAcl(acl.getAcl());
+			try {
+				view.setOwner(acl.getOwner());
+			} catch (FileSystemException e) {
+				// Only a privileged process may give the file away
+			}
+		}
+	}
 	
 
 }
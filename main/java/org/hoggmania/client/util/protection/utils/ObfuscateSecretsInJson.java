@@ -0,0 +1,536 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.EncryptedInfo;
+import org.hoggmania.client.util.protection.ObfuscatorInf;
+import org.hoggmania.client.util.protection.PassphraseObfuscatorFactory;
+
+/**
+ * Utility class to obfuscate secrets within a JSON file. The file is
+ * streamed through a byte level tokenizer, without building a tree, and only
+ * the string values selected by the paths are rewritten, in the format of
+ * {@link ObfuscateSecretsHelper#writeObfuscatedSecret(EncryptedInfo)}.
+ * Everything else, white space, order, numbers and escapes, is copied as is
+ * from the read buffer, so the memory used does not depend on the size of
+ * the file.
+ * 
+ * @author james.holland
+ * 
+ */
+public class ObfuscateSecretsInJson {
+
+	private static final Charset	UTF_8	= Charset.forName("UTF-8");
+	private static final int		BUFFER	= 64 * 1024;
+
+	/**
+	 * This utility is to obfuscate secrets within a JSON file. <br>
+	 * System options (-D) available are: - <li>PWB_ALGORITM_PBE</li> <li>
+	 * PWB_ALGORITM_HASH</li> <li>PWB_PROVIDER</li> <li>PWB_IMPLEMENTATION</li> <br>
+	 * Warning, these options must be used when decrypting the value as well.
+	 * Example: -<BR>
+	 * <code>java ObfuscateSecretsInJson config.json true /db/password,**.apiKey</code>
+	 * The paths are JSON pointers or dotted names with wildcards, see
+	 * {@link JsonPathSelector}
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length != 3) {
+				usage();
+				System.exit(0);
+			}
+			boolean obfuscate = Boolean.parseBoolean(args[1]);
+			String[] paths = args[2].split(",");
+			Map<String, String> map = ObfuscateSecretsHelper.extractSystemOptions();
+
+			int count;
+			if (obfuscate) {
+				count = obfuscateFile(args[0], paths, map);
+			} else {
+				count = deObfuscateFile(args[0], paths, map);
+			}
+			System.out.println(count + " values " + (obfuscate ? "obfuscated." : "de-obfuscated."));
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage <json file> <true/false true=obfuscate false=de-ofuscate> <comma delimited paths (no spaces), e.g. /db/password,/servers/*/password,**.apiKey> \n System options (-D) are <PWB_ALGORITM_PBE> <PWB_ALGORITM_HASH> <PWB_PROVIDER> <PWB_IMPLEMENTATION>");
+	}
+
+	/**
+	 * Obfuscates the string values of the paths, values already obfuscated are
+	 * left. The result is written to a temporary file that replaces the
+	 * original, the file is left untouched when nothing matched.
+	 * 
+	 * @param filename
+	 * @param paths
+	 *            JSON pointers or dotted paths
+	 * @param map
+	 *            dictates which obfuscater is used
+	 * @return number of values obfuscated
+	 * @throws Exception
+	 */
+	public static int obfuscateFile(String filename, String[] paths, Map<String, String> map) throws Exception {
+		return processFile(filename, paths, map, true);
+	}
+
+	/**
+	 * De-obfuscates the string values of the paths, as obfuscateFile
+	 * 
+	 * @param filename
+	 * @param paths
+	 *            JSON pointers or dotted paths
+	 * @param map
+	 * @return number of values de-obfuscated
+	 * @throws Exception
+	 */
+	public static int deObfuscateFile(String filename, String[] paths, Map<String, String> map) throws Exception {
+		return processFile(filename, paths, map, false);
+	}
+
+	/**
+	 * Streams a JSON document from in to out, rewriting the string values of
+	 * the paths
+	 * 
+	 * @param in
+	 * @param out
+	 * @param paths
+	 *            JSON pointers or dotted paths
+	 * @param map
+	 *            dictates which obfuscater is used
+	 * @param obfuscate
+	 * @return number of values changed
+	 * @throws Exception
+	 */
+	public static int process(InputStream in, OutputStream out, String[] paths, Map<String, String> map, boolean obfuscate) throws Exception {
+		ObfuscatorInf pg = obfuscate ? PassphraseObfuscatorFactory.getAdapter(map) : null;
+		int count = new Rewriter(in, out, JsonPathSelector.compile(paths), obfuscate, pg).run();
+		out.flush();
+		return count;
+	}
+
+	private static int processFile(String filename, String[] paths, Map<String, String> map, boolean obfuscate) throws Exception {
+		Path target = Paths.get(filename).toAbsolutePath();
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			int count;
+			InputStream in = Files.newInputStream(target);
+			try {
+				OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), BUFFER);
+				try {
+					count = process(in, out, paths, map, obfuscate);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			if (count > 0) {
+				ObfuscateSecretsHelper.replaceFile(temp, target);
+			}
+			return count;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * @return the value to write, the same value when it is left
+	 */
+	private static String transform(String value, boolean obfuscate, ObfuscatorInf pg) throws Exception {
+		if (obfuscate) {
+			if (value.startsWith("{")) return value;
+			return ObfuscateSecretsHelper.writeObfuscatedSecret(pg.encrypt(value.getBytes()));
+		}
+		if (!value.startsWith("{")) return value;
+		EncryptedInfo info = ObfuscateSecretsHelper.parseObfuscatedSecret(value);
+		return new String(PassphraseObfuscatorFactory.getAdapter(info).decrypt(info));
+	}
+
+	/**
+	 * Streams the document, the bytes from mark to the read position are
+	 * copied to the output when the buffer is refilled or a value is replaced
+	 */
+	private static final class Rewriter {
+		private final InputStream			in;
+		private final OutputStream			out;
+		private final JsonPathSelector		selector;
+		private final boolean				obfuscate;
+		private final ObfuscatorInf			pg;
+		private final byte[]				buf		= new byte[BUFFER];
+		private final ByteArrayOutputStream	token	= new ByteArrayOutputStream();
+		private int							pos, limit, mark;
+		private long						consumed;
+		private boolean						copying	= true;
+
+		// Per open container, its type, index and state, the value being read is one deeper
+		private byte[]						types	= new byte[16];
+		private int[]						indexes	= new int[16];
+		private long[][]					states	= new long[17][];
+		private int							count;
+
+		Rewriter(InputStream in, OutputStream out, JsonPathSelector selector, boolean obfuscate, ObfuscatorInf pg) {
+			this.in = in;
+			this.out = out;
+			this.selector = selector;
+			this.obfuscate = obfuscate;
+			this.pg = pg;
+		}
+
+		int run() throws Exception {
+			states[0] = new long[selector.size()];
+			selector.start(states[0]);
+			int c = read();
+			if (c == 0xEF) {
+				// Byte order mark
+				read();
+				read();
+				c = read();
+			}
+			c = skipWhitespace(c);
+			if (c == -1) return 0;
+
+			int level = 0;
+			boolean value = true;
+			while (true) {
+				if (value) {
+					if (c == '{' || c == '[') {
+						grow(level + 1);
+						types[level++] = (byte) c;
+						c = nextToken();
+						if (c == (types[level - 1] == '{' ? '}' : ']')) {
+							level--;
+							c = nextToken();
+							value = false;
+						} else if (types[level - 1] == '{') {
+							c = member(c, level);
+						} else {
+							indexes[level - 1] = 0;
+							enter(level, 0, null);
+						}
+						continue;
+					}
+					if (c == '"') {
+						string(level);
+						c = nextToken();
+					} else {
+						c = scalar(c);
+					}
+					value = false;
+					continue;
+				}
+
+				if (level == 0) {
+					if (c != -1) throw invalid("content after the document");
+					break;
+				}
+				byte type = types[level - 1];
+				if (c == ',') {
+					c = nextToken();
+					if (type == '{') {
+						c = member(c, level);
+					} else {
+						enter(level, ++indexes[level - 1], null);
+					}
+					value = true;
+				} else if (c == (type == '{' ? '}' : ']')) {
+					level--;
+					c = nextToken();
+				} else {
+					throw invalid("expected , or " + (type == '{' ? '}' : ']'));
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Reads the name of a member up to its value
+		 * 
+		 * @return first byte of the value
+		 */
+		private int member(int c, int level) throws IOException {
+			if (c != '"') throw invalid("expected a member name");
+			if (JsonPathSelector.isDead(states[level - 1], selector.size())) {
+				skipString();
+				enter(level, 0, "");
+			} else {
+				enter(level, 0, readName());
+			}
+			if (nextToken() != ':') throw invalid("expected :");
+			return nextToken();
+		}
+
+		/**
+		 * Sets the state of the member or element, the name is only worked
+		 * out while a path may still match
+		 */
+		private void enter(int level, int index, String name) {
+			long[] state = states[level];
+			if (state == null) {
+				state = new long[selector.size()];
+				states[level] = state;
+			}
+			long[] parent = states[level - 1];
+			if (JsonPathSelector.isDead(parent, selector.size())) {
+				for (int p = 0; p < state.length; p++) {
+					state[p] = 0;
+				}
+				return;
+			}
+			selector.enter(parent, name == null ? Integer.toString(index) : name, state);
+		}
+
+		/**
+		 * Reads a string value after its opening quote, replacing it when
+		 * selected
+		 */
+		private void string(int level) throws Exception {
+			if (!selector.matched(states[level])) {
+				skipString();
+				return;
+			}
+			// Copy up to and including the opening quote, the text is written in its place
+			out.write(buf, mark, pos - mark);
+			copying = false;
+			byte[] raw = readString();
+			mark = pos - 1;
+			copying = true;
+
+			String value = unescape(raw);
+			String result = transform(value, obfuscate, pg);
+			if (result.equals(value)) {
+				out.write(raw);
+			} else {
+				out.write(escape(result).getBytes(UTF_8));
+				count++;
+			}
+		}
+
+		/**
+		 * @return a member name after its opening quote, decoded from the
+		 *         buffer when it is there in full without escapes
+		 */
+		private String readName() throws IOException {
+			for (int i = pos; i < limit; i++) {
+				byte b = buf[i];
+				if (b == '"') {
+					String name = new String(buf, pos, i - pos, UTF_8);
+					pos = i + 1;
+					return name;
+				}
+				if (b == '\\') break;
+			}
+			return unescape(readString());
+		}
+
+		/**
+		 * @return the bytes of a string after its opening quote, the closing
+		 *         quote is read
+		 */
+		private byte[] readString() throws IOException {
+			token.reset();
+			while (true) {
+				int b = read();
+				if (b == -1) throw invalid("unterminated string");
+				if (b == '"') return token.toByteArray();
+				token.write(b);
+				if (b == '\\') {
+					b = read();
+					if (b == -1) throw invalid("unterminated string");
+					token.write(b);
+				}
+			}
+		}
+
+		private void skipString() throws IOException {
+			while (true) {
+				while (pos < limit) {
+					byte b = buf[pos++];
+					if (b == '"') return;
+					if (b == '\\') {
+						if (pos == limit && !fill()) throw invalid("unterminated string");
+						pos++;
+					}
+				}
+				if (!fill()) throw invalid("unterminated string");
+			}
+		}
+
+		/**
+		 * Reads a number, true, false or null
+		 * 
+		 * @return the next token after it
+		 */
+		private int scalar(int c) throws IOException {
+			if (!isScalar(c)) throw invalid(c == -1 ? "unexpected end" : "unexpected character");
+			while (true) {
+				while (pos < limit) {
+					int b = buf[pos++] & 0xff;
+					if (!isScalar(b)) return skipWhitespace(b);
+				}
+				if (!fill()) return -1;
+			}
+		}
+
+		private static boolean isScalar(int c) {
+			return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '+' || c == '.';
+		}
+
+		private int nextToken() throws IOException {
+			return skipWhitespace(read());
+		}
+
+		private int skipWhitespace(int c) throws IOException {
+			while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				c = read();
+			}
+			return c;
+		}
+
+		private int read() throws IOException {
+			if (pos == limit && !fill()) return -1;
+			return buf[pos++] & 0xff;
+		}
+
+		/**
+		 * Copies the rest of the buffer to the output and reads the next
+		 * block
+		 * 
+		 * @return false at the end of the input
+		 */
+		private boolean fill() throws IOException {
+			if (copying && limit > mark) out.write(buf, mark, limit - mark);
+			consumed += limit;
+			pos = limit = mark = 0;
+			int n;
+			do {
+				n = in.read(buf);
+			} while (n == 0);
+			if (n < 0) return false;
+			limit = n;
+			return true;
+		}
+
+		private void grow(int level) {
+			if (level < types.length) return;
+			byte[] t = new byte[types.length * 2];
+			System.arraycopy(types, 0, t, 0, types.length);
+			types = t;
+			int[] i = new int[indexes.length * 2];
+			System.arraycopy(indexes, 0, i, 0, indexes.length);
+			indexes = i;
+			long[][] s = new long[types.length + 1][];
+			System.arraycopy(states, 0, s, 0, states.length);
+			states = s;
+		}
+
+		private IOException invalid(String message) {
+			return new IOException("Invalid JSON, " + message + " at byte " + (consumed + pos));
+		}
+	}
+
+	private static String unescape(byte[] raw) throws IOException {
+		String text = new String(raw, UTF_8);
+		if (text.indexOf('\\') < 0) return text;
+		StringBuilder sb = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			c = text.charAt(++i);
+			switch (c) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (i + 4 >= text.length()) throw new IOException("Invalid JSON escape in " + text);
+					try {
+						sb.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid JSON escape in " + text);
+					}
+					i += 4;
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -19,8 +19,19 @@
 package org.hoggmania.client.util.protection.utils;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hoggmania.client.util.protection.EncryptedInfo;
 import org.hoggmania.client.util.protection.ObfuscatorInf;
@@ -34,7 +45,7 @@ import org.hoggmania.client.util.protection.PassphraseObfuscatorFactory;
  */
 public class ObfuscateSecretsInProperties {
 	
-	private static final int FILE_MAX_SIZE = 150000;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
 
 	/**
 	 * This utility is to obfuscate secrets within a properties file. <br>
@@ -46,6 +57,8 @@ public class ObfuscateSecretsInProperties {
 	 * <code>java -DPWB_PROVIDER=BC ObfuscateSecretsInProperties password01 true HSM_PIN,JCE_PASSWORD,EMAIL_SERVER_PWD</code>
 	 * To de-obfuscate entries in a file<br>
 	 * <code>java -DPWB_PROVIDER=BC ObfuscateSecretsInProperties password01 false HSM_PIN,JCE_PASSWORD,EMAIL_SERVER_PWD</code>
+	 * The keys can be patterns, see {@link KeySelector}<br>
+	 * <code>java ObfuscateSecretsInProperties password01 true **.password,db.*.credentials</code>
 	 * 
 	 * @param args
 	 */
@@ -84,104 +97,336 @@ public class ObfuscateSecretsInProperties {
 	  }
 	  
 	  private static void usage() {
-	    System.out.println("Usage <property file> <true/false true=obfuscate false=de-ofuscate> <true/false true=comma-separated-values false=single value> <comma delimited keys to obfuscate (no spaces)> \n System options (-D) are <PWB_ALGORITM_PBE> <PWB_ALGORITM_HASH> <PWB_PROVIDER> <PWB_IMPLEMENTATION>");
+	    System.out.println("Usage <property file> <true/false true=obfuscate false=de-ofuscate> <true/false true=comma-separated-values false=single value> <comma delimited keys or patterns to obfuscate (no spaces), e.g. HSM_PIN,**.password,db.*.credentials,regex:.*_PWD> \n System options (-D) are <PWB_ALGORITM_PBE> <PWB_ALGORITM_HASH> <PWB_PROVIDER> <PWB_IMPLEMENTATION>");
 	  }
 	  
 	  
 	/**
 	 * Obfuscate a files properties with the defined keys. The map passed
-	 * dictates which obfuscater is used
+	 * dictates which obfuscater is used. <br>
+	 * The file is streamed a line at a time, so its size is not limited, and
+	 * only the lines of the keys are rewritten, comments, order and line
+	 * endings are kept. A value continued over several lines is replaced by a
+	 * single line. A value that is already obfuscated, or already plain, is
+	 * kept as it is. The result is written to a temporary file that replaces
+	 * the original, or the file a link points to, when a value was rewritten.
 	 * 
 	 * @param filename
 	 * @param propertyKeysToObfuscate
 	 * @param map
 	 * @param obfuscate
+	 * @return number of values rewritten
 	 * @throws Exception
 	 */
 
-	  private static void processFile(String filename, String[] propertyKeysToObfuscate, Map<String, String> map, boolean obfuscate, boolean commaSeperated)
+	  private static int processFile(String filename, String[] propertyKeysToObfuscate, Map<String, String> map, final boolean obfuscate, final boolean commaSeperated)
 	    throws Exception
 	  {
-	    File propFile = new File(filename);
-	    FileInputStream fin = new FileInputStream(propFile);
-	    Properties props = new Properties();
-	    props.load(fin);
-	    fin.close();
+	    final AtomicInteger count = new AtomicInteger();
+	    KeySelector keys = KeySelector.compile(propertyKeysToObfuscate);
+	    Set<String> found = new HashSet<String>();
+	    final ObfuscatorInf pg = obfuscate ? PassphraseObfuscatorFactory.getAdapter(map) : null;
 	    
-	    Properties result;
-	    if (obfuscate) {
-	      result = obfuscateFile(props, propertyKeysToObfuscate, map, commaSeperated);
-	    } else {
-	      result = deObfuscateFile(props, propertyKeysToObfuscate, map, commaSeperated);
+	    // A link is kept, the file it points to is replaced
+	    Path target = new File(filename).toPath().toRealPath();
+	    Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+	    try
+	    {
+	      // ISO 8859-1 as Properties.load, every byte of the lines not rewritten is copied as is
+	      LineReader in = new LineReader(new InputStreamReader(new FileInputStream(target.toFile()), ISO_8859_1));
+	      Writer out = null;
+	      ParallelValues values = null;
+	      try
+	      {
+	        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp.toFile()), ISO_8859_1));
+	        // Written in file order, the values may be encrypted ahead in parallel
+	        values = new ParallelValues(out);
+	        StringBuilder raw = new StringBuilder();
+	        StringBuilder logical = new StringBuilder();
+	        while (in.next())
+	        {
+	          raw.setLength(0);
+	          raw.append(in.content).append(in.terminator);
+	          int start = skipWhitespace(in.content, 0);
+	          if (start == in.content.length() || in.content.charAt(start) == '#' || in.content.charAt(start) == '!') {
+	            values.write(raw.toString());
+	            continue;
+	          }
+	          
+	          // Join the continuation lines as Properties.load does
+	          logical.setLength(0);
+	          logical.append(in.content, start, in.content.length());
+	          while (isContinued(logical) && in.next()) {
+	            logical.setLength(logical.length() - 1);
+	            logical.append(in.content, skipWhitespace(in.content, 0), in.content.length());
+	            raw.append(in.content).append(in.terminator);
+	          }
+	          if (isContinued(logical)) {
+	            logical.setLength(logical.length() - 1);
+	          }
+	          
+	          int keyEnd = findKeyEnd(logical);
+	          String key = unescape(logical, 0, keyEnd);
+	          if (!keys.matches(key)) {
+	            values.write(raw.toString());
+	            continue;
+	          }
+	          found.add(key);
+	          
+	          int valueStart = skipWhitespace(logical, keyEnd);
+	          if (valueStart < logical.length() && (logical.charAt(valueStart) == '=' || logical.charAt(valueStart) == ':')) {
+	            valueStart = skipWhitespace(logical, valueStart + 1);
+	          }
+	          final String name = key;
+	          final String value = unescape(logical, valueStart, logical.length());
+	          final String original = raw.toString();
+	          final String prefix = logical.substring(0, keyEnd) + "=";
+	          final String terminator = in.terminator;
+	          
+	          // The lines of a value that is not transformed are written as they were read
+	          values.write(new Callable<String>() {
+	            public String call() throws Exception {
+	              String result = obfuscate ? obfuscateValue(name, value, pg, commaSeperated) : deObfuscateValue(name, value, commaSeperated);
+	              if (result.equals(value)) {
+	                return original;
+	              }
+	              count.incrementAndGet();
+	              return prefix + escape(result) + terminator;
+	            }
+	          });
+	        }
+	        values.flush();
+	      }
+	      finally
+	      {
+	        if (values != null) {
+	          values.cancel();
+	        }
+	        in.close();
+	        if (out != null) {
+	          out.close();
+	        }
+	      }
+	      if (count.get() > 0) {
+	        ObfuscateSecretsHelper.replaceFile(temp, target);
+	      }
 	    }
-	    
-
-
-
-	    StringWriter fout = new StringWriter();
-	    
-
-
-
-
-
-
-
-
-
-
-	    BufferedReader bufReader = new BufferedReader(new FileReader(propFile));
-	    
-	    char[] buffer = new char[FILE_MAX_SIZE];
-	    bufReader.read(buffer, 0, FILE_MAX_SIZE);
-	    String readPropsFile = new String(buffer).trim();
-	    String[] readPropsFiles = readPropsFile.split("\n\r|\r\n|\n|\r");
-	    int rowCount = 0;
-	    
-	    String line = readPropsFiles[rowCount];
-	    line.trim();
-	    
-
-	    do
+	    finally
 	    {
+	      Files.deleteIfExists(temp);
+	    }
+	    
+	    if (obfuscate) {
 	      for (int i = 0; i < propertyKeysToObfuscate.length; i++) {
-	        if (line.startsWith(propertyKeysToObfuscate[i] + "=")) {
-	          line = propertyKeysToObfuscate[i] + "=" + result.getProperty(propertyKeysToObfuscate[i]);
+	        if (!KeySelector.isPattern(propertyKeysToObfuscate[i]) && !found.contains(propertyKeysToObfuscate[i])) {
+	          System.out.println(propertyKeysToObfuscate[i] + " does not exist.");
 	        }
 	      }
-	      fout.write(line);
-	      fout.write("\n");
-	      rowCount++;
-	      
-	      if (rowCount < readPropsFiles.length) {
-	        line = readPropsFiles[rowCount];
-	        line.trim();
+	    }
+	    return count.get();
+	  }
+	  
+	  private static int skipWhitespace(CharSequence line, int index)
+	  {
+	    while (index < line.length()) {
+	      char c = line.charAt(index);
+	      if (c != ' ' && c != '\t' && c != '\f') {
+	        break;
+	      }
+	      index++;
+	    }
+	    return index;
+	  }
+	  
+	  /**
+	   * A line ending in an odd number of backslashes continues on the next line
+	   */
+	  private static boolean isContinued(CharSequence line)
+	  {
+	    int count = 0;
+	    for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+	      count++;
+	    }
+	    return count % 2 == 1;
+	  }
+	  
+	  /**
+	   * @return the index after the key, the key ends at the first unescaped
+	   *         separator or whitespace
+	   */
+	  private static int findKeyEnd(CharSequence line)
+	  {
+	    int index = 0;
+	    while (index < line.length()) {
+	      char c = line.charAt(index);
+	      if (c == '\\') {
+	        index += 2;
+	        continue;
+	      }
+	      if (c == '=' || c == ':' || c == ' ' || c == '\t' || c == '\f') {
+	        break;
+	      }
+	      index++;
+	    }
+	    return Math.min(index, line.length());
+	  }
+	  
+	  /**
+	   * Decodes the escapes of a key or value, see {@link Properties#load(Reader)}
+	   */
+	  private static String unescape(CharSequence line, int start, int end)
+	  {
+	    StringBuilder sb = new StringBuilder(end - start);
+	    for (int i = start; i < end; i++) {
+	      char c = line.charAt(i);
+	      if (c != '\\' || i + 1 == end) {
+	        sb.append(c);
+	        continue;
+	      }
+	      c = line.charAt(++i);
+	      if (c == 'u') {
+	        if (i + 4 >= end) {
+	          throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+	        }
+	        try {
+	          sb.append((char)Integer.parseInt(line.subSequence(i + 1, i + 5).toString(), 16));
+	        }
+	        catch (NumberFormatException e) {
+	          throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+	        }
+	        i += 4;
+	      }
+	      else if (c == 't') {
+	        sb.append('\t');
+	      }
+	      else if (c == 'r') {
+	        sb.append('\r');
+	      }
+	      else if (c == 'n') {
+	        sb.append('\n');
+	      }
+	      else if (c == 'f') {
+	        sb.append('\f');
 	      }
 	      else {
-	        line = null;
+	        sb.append(c);
 	      }
-	      
-	    } while ((line != null) && (rowCount < readPropsFiles.length));
-	    fout.close();
-	    bufReader.close();
+	    }
+	    return sb.toString();
+	  }
+	  
+	  /**
+	   * Encodes a value so it is read back unchanged, characters outside
+	   * printable ASCII are written as unicode escapes
+	   */
+	  private static String escape(String value)
+	  {
+	    StringBuilder sb = new StringBuilder(value.length() + 16);
+	    for (int i = 0; i < value.length(); i++) {
+	      char c = value.charAt(i);
+	      switch (c) {
+	      case ' ':
+	        if (i == 0) {
+	          sb.append('\\');
+	        }
+	        sb.append(c);
+	        break;
+	      case '\\':
+	        sb.append("\\\\");
+	        break;
+	      case '\t':
+	        sb.append("\\t");
+	        break;
+	      case '\n':
+	        sb.append("\\n");
+	        break;
+	      case '\r':
+	        sb.append("\\r");
+	        break;
+	      case '\f':
+	        sb.append("\\f");
+	        break;
+	      default:
+	        if (c < 0x20 || c > 0x7e) {
+	          sb.append(String.format("\\u%04X", (int)c));
+	        }
+	        else {
+	          sb.append(c);
+	        }
+	      }
+	    }
+	    return sb.toString();
+	  }
+	  
+	  /**
+	   * Reads the lines of a file keeping the line terminator of each
+	   */
+	  private static final class LineReader
+	  {
+	    private final Reader in;
+	    private final char[] buffer = new char[8192];
+	    private int position;
+	    private int limit;
+	    final StringBuilder content = new StringBuilder();
+	    String terminator = "";
 	    
-	    FileWriter propsWriter = new FileWriter(propFile);
-	    propsWriter.write(fout.toString());
-	    propsWriter.close();
+	    LineReader(Reader in)
+	    {
+	      this.in = in;
+	    }
+	    
+	    /**
+	     * @return false at the end of the file
+	     */
+	    boolean next() throws IOException
+	    {
+	      content.setLength(0);
+	      terminator = "";
+	      while (true) {
+	        if (position == limit && !fill()) {
+	          return content.length() > 0;
+	        }
+	        char c = buffer[position++];
+	        if (c == '\n') {
+	          terminator = "\n";
+	          return true;
+	        }
+	        if (c == '\r') {
+	          if (position == limit) {
+	            fill();
+	          }
+	          if (position < limit && buffer[position] == '\n') {
+	            position++;
+	            terminator = "\r\n";
+	          }
+	          else {
+	            terminator = "\r";
+	          }
+	          return true;
+	        }
+	        content.append(c);
+	      }
+	    }
+	    
+	    private boolean fill() throws IOException
+	    {
+	      int read = in.read(buffer);
+	      position = 0;
+	      limit = Math.max(read, 0);
+	      return read > 0;
+	    }
+	    
+	    void close() throws IOException
+	    {
+	      in.close();
+	    }
 	  }
 	  
 
-
-
-
-
-
-
-
-	  public static void obfuscateFile(String filename, String[] propertyKeysToObfuscate, Map<String, String> map, boolean commaSeparated)
+	  public static int obfuscateFile(String filename, String[] propertyKeysToObfuscate, Map<String, String> map, boolean commaSeparated)
 	    throws Exception
 	  {
-	    processFile(filename, propertyKeysToObfuscate, map, true, commaSeparated);
+	    return processFile(filename, propertyKeysToObfuscate, map, true, commaSeparated);
 	  }
 	  
 
@@ -192,63 +437,82 @@ public class ObfuscateSecretsInProperties {
 
 
 
-	  public static void deObfuscateFile(String filename, String[] propertyKeysToObfuscate, Map<String, String> map, boolean commaSeparated)
+	  public static int deObfuscateFile(String filename, String[] propertyKeysToObfuscate, Map<String, String> map, boolean commaSeparated)
 	    throws Exception
 	  {
-	    processFile(filename, propertyKeysToObfuscate, map, false, commaSeparated);
+	    return processFile(filename, propertyKeysToObfuscate, map, false, commaSeparated);
 	  }
 	  
-
-
-
-
-
-
-
-
-
-	  public static Properties deObfuscateFile(Properties props, String[] propertyKeysToObfuscate, Map<String, String> map, boolean commaSeperated)
+	/**
+	 * De-obfuscates the keys of a copy of the properties up front, use
+	 * {@link DecryptingProperties} to de-obfuscate values only when they are
+	 * read
+	 */
+	  public static Properties deObfuscateFile(Properties props, String[] propertyKeysToObfuscate, Map<String, String> map, final boolean commaSeperated)
 	    throws Exception
 	  {
 	    Properties result = (Properties)props.clone();
+	    propertyKeysToObfuscate = selectKeys(props, propertyKeysToObfuscate);
 	    
+	    List<String> keys = new ArrayList<String>();
+	    List<Callable<String>> tasks = new ArrayList<Callable<String>>();
 	    for (int i = 0; i < propertyKeysToObfuscate.length; i++) {
-	      String tmp = result.getProperty(propertyKeysToObfuscate[i]);
+	      final String key = propertyKeysToObfuscate[i];
+	      final String tmp = result.getProperty(key);
 	      if (tmp != null) {
-	        if (commaSeperated) {
-	          StringBuffer sb = new StringBuffer();
-	          String[] values = tmp.split(",");
-	          String delim = "";
-	          for (int j = 0; j < values.length; j++) {
-	            String v = values[j].trim();
-	            if (!v.startsWith("{")) {
-	              System.out.println(propertyKeysToObfuscate[i] + " password is already in plain text");
-	            }
-	            else {
-	              EncryptedInfo info = ObfuscateSecretsHelper.parseObfuscatedSecret(v);
-	              ObfuscatorInf pg = PassphraseObfuscatorFactory.getAdapter(info);
-	              sb.append(delim);
-	              sb.append(new String(pg.decrypt(info)));
-	              System.out.println(propertyKeysToObfuscate[i] + " at " + j + " de-obfuscated.");
-	              delim = ",";
-	            }
+	        keys.add(key);
+	        tasks.add(new Callable<String>() {
+	          public String call() throws Exception {
+	            return deObfuscateValue(key, tmp, commaSeperated);
 	          }
-	          result.setProperty(propertyKeysToObfuscate[i], sb.toString());
-
-	        }
-	        else if (!tmp.startsWith("{")) {
-	          System.out.println(propertyKeysToObfuscate[i] + " password is already in plain text");
+	        });
+	      }
+	    }
+	    setAll(result, keys, ParallelValues.apply(tasks));
+	    
+	    return result;
+	  }
+	  
+	  private static void setAll(Properties result, List<String> keys, List<String> values)
+	  {
+	    for (int i = 0; i < keys.size(); i++) {
+	      result.setProperty(keys.get(i), values.get(i));
+	    }
+	  }
+	  
+	  private static String deObfuscateValue(String key, String tmp, boolean commaSeperated)
+	    throws Exception
+	  {
+	    if (commaSeperated) {
+	      StringBuffer sb = new StringBuffer();
+	      String[] values = tmp.split(",");
+	      String delim = "";
+	      for (int j = 0; j < values.length; j++) {
+	        String v = values[j].trim();
+	        if (!v.startsWith("{")) {
+	          System.out.println(key + " password is already in plain text");
 	        }
 	        else {
-	          EncryptedInfo info = ObfuscateSecretsHelper.parseObfuscatedSecret(tmp);
+	          EncryptedInfo info = ObfuscateSecretsHelper.parseObfuscatedSecret(v);
 	          ObfuscatorInf pg = PassphraseObfuscatorFactory.getAdapter(info);
-	          result.setProperty(propertyKeysToObfuscate[i], new String(pg.decrypt(info)));
-	          System.out.println(propertyKeysToObfuscate[i] + " de-obfuscated.");
+	          sb.append(delim);
+	          sb.append(new String(pg.decrypt(info)));
+	          System.out.println(key + " at " + j + " de-obfuscated.");
+	          delim = ",";
 	        }
 	      }
+	      return sb.toString();
+	    }
+	    else if (!tmp.startsWith("{")) {
+	      System.out.println(key + " password is already in plain text");
+	      return tmp;
+	    }
+	    else {
+	      EncryptedInfo info = ObfuscateSecretsHelper.parseObfuscatedSecret(tmp);
+	      ObfuscatorInf pg = PassphraseObfuscatorFactory.getAdapter(info);
+	      System.out.println(key + " de-obfuscated.");
+	      return new String(pg.decrypt(info));
 	    }
-	    
-	    return result;
 	  }
 	  
 
@@ -259,52 +523,95 @@ public class ObfuscateSecretsInProperties {
 
 
 
-	  public static Properties obfuscateFile(Properties props, String[] propertyKeysToObfuscate, Map<String, String> map, boolean commaSeperated)
+	  public static Properties obfuscateFile(Properties props, String[] propertyKeysToObfuscate, Map<String, String> map, final boolean commaSeperated)
 	    throws Exception
 	  {
 	    Properties result = (Properties)props.clone();
-	    ObfuscatorInf pg = PassphraseObfuscatorFactory.getAdapter(map);
+	    final ObfuscatorInf pg = PassphraseObfuscatorFactory.getAdapter(map);
+	    propertyKeysToObfuscate = selectKeys(props, propertyKeysToObfuscate);
+	    List<String> keys = new ArrayList<String>();
+	    List<Callable<String>> tasks = new ArrayList<Callable<String>>();
 	    for (int i = 0; i < propertyKeysToObfuscate.length; i++) {
-	      String tmp = result.getProperty(propertyKeysToObfuscate[i]);
+	      final String key = propertyKeysToObfuscate[i];
+	      final String tmp = result.getProperty(key);
 	      if (tmp != null) {
-	        if (commaSeperated) {
-	          String[] values = tmp.split(",");
-	          StringBuffer sb = new StringBuffer();
-	          String delim = "";
-	          for (int j = 0; j < values.length; j++) {
-	            String v = values[j].trim();
-	            if (v.startsWith("{")) {
-	              System.out.println(propertyKeysToObfuscate[i] + " at " + j + " password already obfuscated");
-	            }
-	            else {
-	              EncryptedInfo sec = pg.encrypt(v.getBytes());
-	              
-	              String encryptedPropValue = ObfuscateSecretsHelper.writeObfuscatedSecret(sec);
-	              sb.append(delim);
-	              sb.append(encryptedPropValue);
-	              System.out.println(propertyKeysToObfuscate[i] + " at " + j + " obfuscated.");
-	              delim = ",";
-	            }
+	        keys.add(key);
+	        tasks.add(new Callable<String>() {
+	          public String call() throws Exception {
+	            return obfuscateValue(key, tmp, pg, commaSeperated);
 	          }
-	          result.setProperty(propertyKeysToObfuscate[i], sb.toString());
-
-	        }
-	        else if (tmp.startsWith("{")) {
-	          System.out.println(propertyKeysToObfuscate[i] + " password already obfuscated");
+	        });
+	      }
+	      else {
+	        System.out.println(key + " does not exist.");
+	      }
+	    }
+	    setAll(result, keys, ParallelValues.apply(tasks));
+	    return result;
+	  }
+	  
+	  /**
+	   * Expands the patterns to the matching keys of the properties, the plain
+	   * keys are kept in order followed by the matches in key order
+	   */
+	  private static String[] selectKeys(Properties props, String[] propertyKeysToObfuscate)
+	  {
+	    Set<String> keys = new LinkedHashSet<String>();
+	    boolean patterns = false;
+	    for (int i = 0; i < propertyKeysToObfuscate.length; i++) {
+	      if (KeySelector.isPattern(propertyKeysToObfuscate[i])) {
+	        patterns = true;
+	      }
+	      else {
+	        keys.add(propertyKeysToObfuscate[i]);
+	      }
+	    }
+	    if (!patterns) {
+	      return propertyKeysToObfuscate;
+	    }
+	    KeySelector selector = KeySelector.compile(propertyKeysToObfuscate);
+	    for (String key : new TreeSet<String>(props.stringPropertyNames())) {
+	      if (selector.matches(key)) {
+	        keys.add(key);
+	      }
+	    }
+	    return keys.toArray(new String[keys.size()]);
+	  }
+	  
+	  private static String obfuscateValue(String key, String tmp, ObfuscatorInf pg, boolean commaSeperated)
+	    throws Exception
+	  {
+	    if (commaSeperated) {
+	      String[] values = tmp.split(",");
+	      StringBuffer sb = new StringBuffer();
+	      String delim = "";
+	      for (int j = 0; j < values.length; j++) {
+	        String v = values[j].trim();
+	        if (v.startsWith("{")) {
+	          System.out.println(key + " at " + j + " password already obfuscated");
 	        }
 	        else {
-	          EncryptedInfo sec = pg.encrypt(tmp.getBytes());
+	          EncryptedInfo sec = pg.encrypt(v.getBytes());
 	          
 	          String encryptedPropValue = ObfuscateSecretsHelper.writeObfuscatedSecret(sec);
-	          result.setProperty(propertyKeysToObfuscate[i], encryptedPropValue);
-	          System.out.println(propertyKeysToObfuscate[i] + " obfuscated.");
+	          sb.append(delim);
+	          sb.append(encryptedPropValue);
+	          System.out.println(key + " at " + j + " obfuscated.");
+	          delim = ",";
 	        }
-	        
-	      }
-	      else {
-	        System.out.println(propertyKeysToObfuscate[i] + " does not exist.");
 	      }
+	      return sb.toString();
+	    }
+	    else if (tmp.startsWith("{")) {
+	      System.out.println(key + " password already obfuscated");
+	      return tmp;
+	    }
+	    else {
+	      EncryptedInfo sec = pg.encrypt(tmp.getBytes());
+	      
+	      String encryptedPropValue = ObfuscateSecretsHelper.writeObfuscatedSecret(sec);
+	      System.out.println(key + " obfuscated.");
+	      return encryptedPropValue;
 	    }
-	    return result;
 	  }
 	}
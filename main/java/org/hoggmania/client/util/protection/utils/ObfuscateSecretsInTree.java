@@ -0,0 +1,568 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility class to obfuscate secrets in every properties, XML and JSON file
+ * of a directory tree in one JVM, so the entropy is found and the key derived
+ * once for all the files. Properties files are handled by
+ * {@link ObfuscateSecretsInProperties}, XML files by
+ * {@link ObfuscateSecretInXML} and JSON files by
+ * {@link ObfuscateSecretsInJson}, selected by the property keys as dotted
+ * paths, so a run with regex: keys must exclude the JSON files. The files are processed in parallel on a
+ * bounded pool sharing the adapter and key cache. <br>
+ * With a manifest the run is incremental, the size, modification time and
+ * content hash of each file are recorded after a successful run and a file
+ * that has not changed since is skipped without being parsed. The manifest
+ * is discarded when the keys, expression or options change.
+ * 
+ * @author james.holland
+ * 
+ */
+public class ObfuscateSecretsInTree {
+
+	public static final String	PWB_BATCH_INCLUDE			= "PWB_BATCH_INCLUDE";
+	public static final String	PWB_BATCH_EXCLUDE			= "PWB_BATCH_EXCLUDE";
+	public static final String	PWB_BATCH_THREADS			= "PWB_BATCH_THREADS";
+	public static final String	PWB_BATCH_COMMA_SEPARATED	= "PWB_BATCH_COMMA_SEPARATED";
+	public static final String	PWB_BATCH_MANIFEST			= "PWB_BATCH_MANIFEST";
+
+	public static final String	INCLUDE_DEFAULT				= "*.properties,*.xml,*.json";
+
+	private static final int	NO_HANDLER					= -1;
+	private static final int	UNCHANGED					= -2;
+
+	private final Path			root;
+	private final boolean		obfuscate;
+	private String[]			propertyKeys		= new String[0];
+	private boolean				commaSeparated		= false;
+	private XmlRules			rules				= null;
+	private Map<String, String>	map					= null;
+	private List<PathMatcher>	includes			= matchers(INCLUDE_DEFAULT);
+	private List<PathMatcher>	excludes			= matchers(null);
+	private int					threads				= Runtime.getRuntime().availableProcessors();
+	private Path				manifest			= null;
+
+	/**
+	 * This utility is to obfuscate secrets within the files of a directory
+	 * tree. <br>
+	 * System options (-D) available are: - <li>PWB_ALGORITM_PBE</li> <li>
+	 * PWB_ALGORITM_HASH</li> <li>PWB_PROVIDER</li> <li>PWB_IMPLEMENTATION</li>
+	 * <li>PWB_BATCH_INCLUDE comma separated globs of the files (default
+	 * *.properties,*.xml,*.json)</li> <li>PWB_BATCH_EXCLUDE comma separated globs of
+	 * the files and directories to skip</li> <li>PWB_BATCH_THREADS files
+	 * processed at once (default the number of processors)</li> <li>
+	 * PWB_BATCH_COMMA_SEPARATED true when property values are comma separated
+	 * lists</li> <li>PWB_BATCH_MANIFEST file of the incremental manifest,
+	 * files unchanged since the last run are skipped</li> A glob without a / is matched against the file name, otherwise
+	 * against the path relative to the directory. <br>
+	 * Warning, these options must be used when decrypting the value as well.
+	 * The exit status is 1 when a file failed. <br>
+	 * Example: -<BR>
+	 * <code>java -DPWB_BATCH_EXCLUDE=target ObfuscateSecretsInTree conf true **.password //Resource password</code>
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length < 3) {
+				usage();
+				System.exit(0);
+			}
+			ObfuscateSecretsInTree tree = new ObfuscateSecretsInTree(Paths.get(args[0]), Boolean.parseBoolean(args[1]));
+			tree.setPropertyKeys(args[2].split(","));
+			if (args.length > 3 && args[3].startsWith("@")) {
+				tree.setRules(XmlRules.load(args[3].substring(1)));
+			} else if (args.length > 3) {
+				tree.setXPath(args[3], args.length > 4 ? args[4] : null);
+			}
+			tree.setMap(ObfuscateSecretsHelper.extractSystemOptions());
+			tree.setCommaSeparated(Boolean.parseBoolean(System.getProperty(PWB_BATCH_COMMA_SEPARATED, "false")));
+			tree.setIncludes(System.getProperty(PWB_BATCH_INCLUDE, INCLUDE_DEFAULT));
+			tree.setExcludes(System.getProperty(PWB_BATCH_EXCLUDE));
+			tree.setThreads(Integer.getInteger(PWB_BATCH_THREADS, Runtime.getRuntime().availableProcessors()).intValue());
+			if (System.getProperty(PWB_BATCH_MANIFEST) != null) {
+				tree.setManifest(Paths.get(System.getProperty(PWB_BATCH_MANIFEST)));
+			}
+
+			Summary summary = tree.run();
+			System.out.println(summary);
+			if (summary.getFailed() > 0) {
+				System.exit(1);
+			}
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage <directory> <true/false true=obfuscate false=de-ofuscate> <comma delimited property keys or patterns (no spaces)> [<xpath expression> [<attribute name>] | @<xml rules file>] \n System options (-D) are <PWB_ALGORITM_PBE> <PWB_ALGORITM_HASH> <PWB_PROVIDER> <PWB_IMPLEMENTATION> <PWB_BATCH_INCLUDE> <PWB_BATCH_EXCLUDE> <PWB_BATCH_THREADS> <PWB_BATCH_COMMA_SEPARATED> <PWB_BATCH_MANIFEST>");
+	}
+
+	/**
+	 * @param root
+	 *            the directory to process
+	 * @param obfuscate
+	 *            true to obfuscate, false to de-obfuscate
+	 */
+	public ObfuscateSecretsInTree(Path root, boolean obfuscate) {
+		this.root = root;
+		this.obfuscate = obfuscate;
+	}
+
+	/**
+	 * @param propertyKeys
+	 *            keys or patterns of the properties files, see
+	 *            {@link KeySelector}, and the paths of the JSON files, as
+	 *            dotted names or JSON pointers
+	 */
+	public void setPropertyKeys(String[] propertyKeys) {
+		this.propertyKeys = propertyKeys;
+	}
+
+	public void setCommaSeparated(boolean commaSeparated) {
+		this.commaSeparated = commaSeparated;
+	}
+
+	/**
+	 * @param expression
+	 *            XPath expression of the XML elements, XML files are skipped
+	 *            when not set
+	 * @param attributeName
+	 *            the attribute to change, null for the element text
+	 */
+	public void setXPath(String expression, String attributeName) {
+		this.rules = expression == null ? null : XmlRules.of(expression, attributeName);
+	}
+
+	/**
+	 * @param rules
+	 *            of the XML values, compiled once and applied to every XML
+	 *            file in one walk, XML files are skipped when not set
+	 */
+	public void setRules(XmlRules rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * @param map
+	 *            dictates which obfuscater is used
+	 */
+	public void setMap(Map<String, String> map) {
+		this.map = map;
+	}
+
+	/**
+	 * @param globs
+	 *            comma separated globs of the files to process
+	 */
+	public void setIncludes(String globs) {
+		this.includes = matchers(globs);
+	}
+
+	/**
+	 * @param globs
+	 *            comma separated globs of the files and directories to skip
+	 */
+	public void setExcludes(String globs) {
+		this.excludes = matchers(globs);
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param manifest
+	 *            file recording the state of the files after the run, null to
+	 *            process every file
+	 */
+	public void setManifest(Path manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Processes the files
+	 * 
+	 * @return the summary of the run
+	 * @throws Exception
+	 *             when the directory cannot be read
+	 */
+	public Summary run() throws Exception {
+		long start = System.currentTimeMillis();
+		List<Path> files = find();
+		checkJsonKeys(files);
+		final Manifest previous = manifest == null ? null : Manifest.load(manifest, fingerprint());
+		final Manifest next = manifest == null ? null : new Manifest(fingerprint(), start);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "obfuscate-tree-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		int processed = 0, unchanged = 0, skipped = 0, failed = 0, values = 0;
+		try {
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(files.size());
+			for (final Path file : files) {
+				tasks.add(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						return process(file, previous, next);
+					}
+				});
+			}
+			List<Future<Integer>> results = pool.invokeAll(tasks);
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					int count = results.get(i).get().intValue();
+					if (count == NO_HANDLER) {
+						skipped++;
+					} else if (count == UNCHANGED) {
+						unchanged++;
+					} else {
+						processed++;
+						values += count;
+					}
+				} catch (ExecutionException e) {
+					failed++;
+					System.err.println(files.get(i) + " failed: " + e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		// Failed files are left out of the manifest so they are tried again
+		if (next != null) next.save(manifest);
+		return new Summary(files.size(), processed, unchanged, skipped, failed, values, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * @return number of values changed, NO_HANDLER when there is no handler
+	 *         for the file or UNCHANGED when it has not changed since the last
+	 *         run
+	 */
+	private int process(Path file, Manifest previous, Manifest next) throws Exception {
+		String name = file.getFileName().toString().toLowerCase();
+		boolean properties = name.endsWith(".properties");
+		boolean json = name.endsWith(".json");
+		if (!properties && !json && !(name.endsWith(".xml") && rules != null)) return NO_HANDLER;
+
+		String key = root.relativize(file).toString().replace('\\', '/');
+		if (previous != null) {
+			String state = previous.unchanged(key, file);
+			if (state != null) {
+				next.put(key, state);
+				return UNCHANGED;
+			}
+		}
+
+		int count;
+		if (properties) {
+			if (obfuscate) {
+				count = ObfuscateSecretsInProperties.obfuscateFile(file.toString(), propertyKeys, map, commaSeparated);
+			} else {
+				count = ObfuscateSecretsInProperties.deObfuscateFile(file.toString(), propertyKeys, map, commaSeparated);
+			}
+		} else if (json) {
+			if (obfuscate) {
+				count = ObfuscateSecretsInJson.obfuscateFile(file.toString(), propertyKeys, map);
+			} else {
+				count = ObfuscateSecretsInJson.deObfuscateFile(file.toString(), propertyKeys, map);
+			}
+		} else {
+			count = ObfuscateSecretInXML.processFile(file.toString(), rules, map, obfuscate);
+		}
+		if (next != null) next.put(key, Manifest.state(file));
+		return count;
+	}
+
+	/**
+	 * Hash of everything that decides the output, a manifest written with
+	 * other options does not apply
+	 */
+	private String fingerprint() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append(obfuscate).append('\n').append(commaSeparated).append('\n');
+		sb.append(Arrays.toString(propertyKeys)).append('\n');
+		sb.append(rules).append('\n');
+		sb.append(map == null ? null : new TreeMap<String, String>(map));
+		return Manifest.hex(MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes("UTF-8")));
+	}
+
+	/**
+	 * Fails before any file is changed when a JSON file would be selected by
+	 * a regex: key, which JSON paths do not support
+	 */
+	private void checkJsonKeys(List<Path> files) {
+		if (propertyKeys == null) return;
+		for (Path file : files) {
+			if (!file.getFileName().toString().toLowerCase().endsWith(".json")) continue;
+			for (String key : propertyKeys) {
+				if (key != null && key.trim().startsWith(KeySelector.REGEX_PREFIX)) {
+					throw new IllegalArgumentException(key + " cannot select the values of " + file
+							+ ", JSON paths do not support regex: keys, use a glob or exclude *.json");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walks the tree for the included files, skipping excluded directories
+	 * and the manifest
+	 */
+	private List<Path> find() throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		final Path ignored = manifest == null ? null : manifest.toAbsolutePath().normalize();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (!dir.equals(root) && matches(excludes, dir)) return FileVisitResult.SKIP_SUBTREE;
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (!attrs.isRegularFile() || file.toAbsolutePath().normalize().equals(ignored)) return FileVisitResult.CONTINUE;
+				if (matches(includes, file) && !matches(excludes, file)) files.add(file);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(files);
+		return files;
+	}
+
+	private boolean matches(List<PathMatcher> matchers, Path path) {
+		Path relative = root.relativize(path);
+		for (PathMatcher matcher : matchers) {
+			if (matcher.matches(relative) || matcher.matches(path.getFileName())) return true;
+		}
+		return false;
+	}
+
+	private static List<PathMatcher> matchers(String globs) {
+		List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+		if (globs == null) return matchers;
+		FileSystem fs = FileSystems.getDefault();
+		for (String glob : globs.split(",")) {
+			if (glob.trim().length() > 0) matchers.add(fs.getPathMatcher("glob:" + glob.trim()));
+		}
+		return matchers;
+	}
+
+	/**
+	 * The state of the files after a run, a properties file of relative path
+	 * to size, modification time and SHA-256 of the content
+	 */
+	private static final class Manifest {
+		private static final String	CONFIG	= "manifest.config";
+		private static final String	WRITTEN	= "manifest.written";
+		private static final String	FILE	= "file:";
+
+		private final String							config;
+		private final long								written;
+		private final ConcurrentHashMap<String, String>	entries	= new ConcurrentHashMap<String, String>();
+
+		Manifest(String config, long written) {
+			this.config = config;
+			this.written = written;
+		}
+
+		/**
+		 * @return the manifest, null when there is none or it was written with
+		 *         other options
+		 */
+		static Manifest load(Path file, String config) throws IOException {
+			if (!Files.isRegularFile(file)) return null;
+			Properties props = new Properties();
+			InputStream in = Files.newInputStream(file);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+			if (!config.equals(props.getProperty(CONFIG))) return null;
+			Manifest manifest = new Manifest(config, Long.parseLong(props.getProperty(WRITTEN, "0")));
+			for (String name : props.stringPropertyNames()) {
+				if (name.startsWith(FILE)) manifest.entries.put(name.substring(FILE.length()), props.getProperty(name));
+			}
+			return manifest;
+		}
+
+		void put(String key, String state) {
+			entries.put(key, state);
+		}
+
+		/**
+		 * The size and modification time are enough when the file is older
+		 * than the manifest, otherwise it may have changed within the
+		 * resolution of the clock and the content hash is compared.
+		 * 
+		 * @return the state to record when the file is unchanged, otherwise
+		 *         null
+		 */
+		String unchanged(String key, Path file) throws Exception {
+			String recorded = entries.get(key);
+			if (recorded == null) return null;
+			String[] fields = recorded.split(",");
+			long size = Files.size(file);
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			if (size != Long.parseLong(fields[0])) return null;
+			if (modified == Long.parseLong(fields[1]) && modified < written) return recorded;
+			String state = state(file);
+			return state.endsWith(fields[2]) ? state : null;
+		}
+
+		/**
+		 * @return size, modification time and content hash of the file
+		 */
+		static String state(Path file) throws Exception {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			InputStream in = Files.newInputStream(file);
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					md.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			return Files.size(file) + "," + Files.getLastModifiedTime(file).toMillis() + "," + hex(md.digest());
+		}
+
+		void save(Path file) throws IOException {
+			Properties props = new Properties();
+			props.setProperty(CONFIG, config);
+			props.setProperty(WRITTEN, String.valueOf(written));
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				props.setProperty(FILE + entry.getKey(), entry.getValue());
+			}
+			Path parent = file.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+			try {
+				OutputStream out = Files.newOutputStream(temp);
+				try {
+					props.store(out, "Obfuscation manifest");
+				} finally {
+					out.close();
+				}
+				ObfuscateSecretsHelper.replaceFile(temp, file);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+
+		static String hex(byte[] bytes) {
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Outcome of a run
+	 */
+	public static final class Summary {
+		private final int	files, processed, unchanged, skipped, failed, values;
+		private final long	elapsed;
+
+		Summary(int files, int processed, int unchanged, int skipped, int failed, int values, long elapsed) {
+			this.files = files;
+			this.processed = processed;
+			this.unchanged = unchanged;
+			this.skipped = skipped;
+			this.failed = failed;
+			this.values = values;
+			this.elapsed = elapsed;
+		}
+
+		public int getFiles() {
+			return files;
+		}
+
+		public int getProcessed() {
+			return processed;
+		}
+
+		/**
+		 * @return files skipped as they had not changed since the last run
+		 */
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		public int getSkipped() {
+			return skipped;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public int getValues() {
+			return values;
+		}
+
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return files + " files found, " + processed + " processed, " + unchanged + " unchanged, " + skipped + " skipped, " + failed + " failed, " + values
+					+ " values changed in " + elapsed + "ms";
+		}
+	}
+}
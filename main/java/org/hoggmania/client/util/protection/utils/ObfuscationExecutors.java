@@ -0,0 +1,100 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the executor the asynchronous de-obfuscation runs on. On Java 21 and
+ * later the default executor starts a virtual thread per task, on older
+ * runtimes it is a bounded pool of daemon threads sized by the system option
+ * (-D) PWB_ASYNC_THREADS (default twice the number of processors). Another
+ * executor can be set by the application.
+ * 
+ * @author james.holland
+ * 
+ */
+public final class ObfuscationExecutors {
+
+	public static final String		PWB_ASYNC_THREADS	= "PWB_ASYNC_THREADS";
+
+	private static volatile Executor	executor			= null;
+
+	private ObfuscationExecutors() {
+	}
+
+	/**
+	 * @return the executor for asynchronous de-obfuscation, created on first
+	 *         use
+	 */
+	public static Executor getExecutor() {
+		Executor result = executor;
+		if (result == null) {
+			synchronized (ObfuscationExecutors.class) {
+				result = executor;
+				if (result == null) {
+					result = createDefault();
+					executor = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces the executor used for asynchronous de-obfuscation, the previous
+	 * executor is not shut down.
+	 * 
+	 * @param value
+	 *            executor to use, null to go back to the default
+	 */
+	public static void setExecutor(Executor value) {
+		synchronized (ObfuscationExecutors.class) {
+			executor = value;
+		}
+	}
+
+	private static Executor createDefault() {
+		try {
+			// Java 21+ only, looked up so the code still runs on older runtimes
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			int threads = Integer.getInteger(PWB_ASYNC_THREADS, 2 * Runtime.getRuntime().availableProcessors()).intValue();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "obfuscation-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Transforms the values of a document, sequentially or, when the system
+ * option (-D) PWB_PARALLEL_VALUES is true, in parallel on the shared pool of
+ * {@link ObfuscateSecretsHelper}. The results are always handed back in
+ * document order so the document written is the same either way. <br>
+ * As a writer the text between the values is queued behind the values still
+ * being transformed. The values already done are written from the head of
+ * the queue on every write, at most WINDOW values are in flight and at most
+ * MAX_QUEUED characters of text are queued, beyond that the writer waits for
+ * the head value, so the memory used does not grow with the document.
+ * 
+ * @author james.holland
+ * 
+ */
+final class ParallelValues {
+
+	static final int			WINDOW		= 256;
+	static final int			MAX_QUEUED	= 1 << 20;
+
+	private final Writer		out;
+	private final boolean		parallel;
+	private final ArrayDeque<Object>	queue	= new ArrayDeque<Object>();
+	private int					inflight;
+	private long				queued;
+
+	/**
+	 * @param out
+	 *            written to in document order
+	 */
+	ParallelValues(Writer out) {
+		this.out = out;
+		this.parallel = isEnabled();
+	}
+
+	/**
+	 * @return true when values are transformed in parallel
+	 */
+	static boolean isEnabled() {
+		return Boolean.getBoolean(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES);
+	}
+
+	/**
+	 * Runs the tasks, in parallel when enabled
+	 * 
+	 * @param tasks
+	 *            in document order
+	 * @return the results in document order
+	 * @throws Exception
+	 *             the failure of the first task in document order to fail
+	 */
+	static List<String> apply(List<Callable<String>> tasks) throws Exception {
+		List<String> results = new ArrayList<String>(tasks.size());
+		if (!isEnabled() || tasks.size() < 2) {
+			for (Callable<String> task : tasks) {
+				results.add(task.call());
+			}
+			return results;
+		}
+		List<Future<String>> futures = new ArrayList<Future<String>>(tasks.size());
+		try {
+			for (Callable<String> task : tasks) {
+				futures.add(ObfuscateSecretsHelper.getParallelPool().submit(task));
+			}
+			for (Future<String> future : futures) {
+				results.add(get(future));
+			}
+		} finally {
+			for (Future<String> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @param text
+	 *            written as is after the values before it
+	 */
+	void write(String text) throws Exception {
+		if (queue.isEmpty()) {
+			out.write(text);
+			return;
+		}
+		queue.add(text);
+		queued += text.length();
+		drainDone();
+		while (queued > MAX_QUEUED && inflight > 0) {
+			drain(1);
+		}
+	}
+
+	/**
+	 * @param value
+	 *            task returning the text to write
+	 */
+	void write(Callable<String> value) throws Exception {
+		if (!parallel) {
+			out.write(value.call());
+			return;
+		}
+		queue.add(ObfuscateSecretsHelper.getParallelPool().submit(value));
+		if (++inflight > WINDOW) drain(inflight - WINDOW);
+		drainDone();
+	}
+
+	/**
+	 * Writes everything queued, waiting for the values still in flight
+	 */
+	void flush() throws Exception {
+		drain(inflight);
+		drainDone();
+	}
+
+	/**
+	 * Cancels the values still in flight after a failure
+	 */
+	void cancel() {
+		for (Object item : queue) {
+			if (item instanceof Future) ((Future<?>) item).cancel(true);
+		}
+		queue.clear();
+		inflight = 0;
+		queued = 0;
+	}
+
+	/**
+	 * Writes the head of the queue up to and including the count'th value,
+	 * then the text and values already done after it
+	 */
+	private void drain(int values) throws Exception {
+		while (values > 0) {
+			if (writeHead()) values--;
+		}
+		drainDone();
+	}
+
+	/**
+	 * Writes the head of the queue until a value still being transformed
+	 */
+	private void drainDone() throws Exception {
+		while (!queue.isEmpty()) {
+			Object item = queue.peek();
+			if (item instanceof Future && !((Future<?>) item).isDone()) return;
+			writeHead();
+		}
+	}
+
+	/**
+	 * @return true when the head was a value
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean writeHead() throws Exception {
+		Object item = queue.poll();
+		if (item instanceof Future) {
+			inflight--;
+			out.write(get((Future<String>) item));
+			return true;
+		}
+		queued -= ((String) item).length();
+		out.write((String) item);
+		return false;
+	}
+
+	private static String get(Future<String> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+import org.hoggmania.client.util.protection.EncryptedInfo;
+import org.hoggmania.client.util.protection.ObfuscatorInf;
+import org.hoggmania.client.util.protection.PassphraseObfuscatorFactory;
+
+/**
+ * Resolves the obfuscated values embedded in any text, e.g. shell environment
+ * files, YAML or nginx configuration templates, replacing each
+ * {code:parameters}value token written by
+ * {@link ObfuscateSecretsHelper#writeObfuscatedSecret(EncryptedInfo)} with
+ * its plain text. <br>
+ * The text is read once. The headers of the tokens, {code} and {code:, of
+ * every known implementation code are found together by one Aho-Corasick
+ * automaton, text that cannot be part of a header is copied a block at a
+ * time, and a header or token split between reads is carried over to the
+ * next, so files larger than memory are resolved as they stream. The
+ * parameters and value of a token run to the first character that is not
+ * Base64, except for the CRLF written after every 76 characters of a long
+ * secret when more Base64 follows it. A line that ends in = padding is the
+ * last line of its token. The secrets are
+ * decrypted through the shared adapters and their cached keys.
+ * 
+ * @author james.holland
+ * 
+ */
+public class ResolveSecretsInText {
+
+	public static final String	PWB_RESOLVE_CHARSET	= "PWB_RESOLVE_CHARSET";
+
+	private static final int	BUFFER				= 8192;
+	// A longer run of Base64 is not taken as a secret
+	private static final int	MAX_TOKEN			= 64 * 1024;
+	// Base64 characters written between line breaks
+	private static final int	LINE_LENGTH			= 76;
+
+	private static final int	SCAN				= 0;
+	private static final int	PARAMETERS			= 1;
+	private static final int	VALUE				= 2;
+
+	private final Node			root				= new Node(0);
+
+	/**
+	 * A resolver of the codes known to {@link PassphraseObfuscatorFactory}
+	 */
+	public ResolveSecretsInText() {
+		this(PassphraseObfuscatorFactory.getCodes());
+	}
+
+	/**
+	 * @param codes
+	 *            implementation codes of the tokens to resolve
+	 */
+	public ResolveSecretsInText(Collection<String> codes) {
+		for (String code : codes) {
+			if (code == null || code.trim().length() == 0) continue;
+			add("{" + code.trim() + "}", false);
+			add("{" + code.trim() + ":", true);
+		}
+		link();
+	}
+
+	/**
+	 * This utility resolves the obfuscated values of a text file, to the
+	 * output file or, without one, to standard out. <br>
+	 * System options (-D) available are: - <li>PWB_RESOLVE_CHARSET of the
+	 * files (default UTF-8)</li> Example: -<BR>
+	 * <code>java ResolveSecretsInText nginx.conf.template nginx.conf</code>
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length < 1 || args.length > 2) {
+				usage();
+				System.exit(0);
+			}
+			long count = resolveFile(args[0], args.length > 1 ? args[1] : null);
+			if (args.length > 1) System.out.println(count + " secrets resolved.");
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage <template file> [<output file>] \n System options (-D) are <PWB_RESOLVE_CHARSET>");
+	}
+
+	/**
+	 * Resolves the obfuscated values of a file
+	 * 
+	 * @param template
+	 * @param output
+	 *            written to a temporary file that replaces it, may be the
+	 *            template, null for standard out
+	 * @return number of secrets resolved
+	 * @throws Exception
+	 */
+	public static long resolveFile(String template, String output) throws Exception {
+		Charset charset = Charset.forName(System.getProperty(PWB_RESOLVE_CHARSET, "UTF-8"));
+		ResolveSecretsInText resolver = new ResolveSecretsInText();
+		Reader in = new InputStreamReader(Files.newInputStream(Paths.get(template)), charset);
+		try {
+			if (output == null) {
+				Writer out = new BufferedWriter(new OutputStreamWriter(System.out, charset));
+				long count = resolver.resolve(in, out);
+				out.flush();
+				return count;
+			}
+			Path target = Paths.get(output).toAbsolutePath();
+			Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try {
+				long count;
+				Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp), charset));
+				try {
+					count = resolver.resolve(in, out);
+				} finally {
+					out.close();
+				}
+				ObfuscateSecretsHelper.replaceFile(temp, target);
+				return count;
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param text
+	 * @return the text with the obfuscated values resolved
+	 * @throws Exception
+	 */
+	public String resolve(String text) throws Exception {
+		StringWriter out = new StringWriter(text.length());
+		resolve(new StringReader(text), out);
+		return out.toString();
+	}
+
+	/**
+	 * Streams the text from in to out with the obfuscated values resolved, out
+	 * is not flushed or closed
+	 * 
+	 * @param in
+	 * @param out
+	 * @return number of secrets resolved
+	 * @throws Exception
+	 *             when a token cannot be decrypted
+	 */
+	public long resolve(Reader in, Writer out) throws Exception {
+		long count = 0;
+		char[] buf = new char[BUFFER];
+		// Characters read that may be part of a header, then the token being read
+		StringBuilder pending = new StringBuilder();
+		Node state = root;
+		int mode = SCAN;
+		int valueStart = 0;
+		// Base64 characters of the current line of the token and characters of a line break read after them
+		int line = 0;
+		int lineBreak = 0;
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			int i = 0;
+			while (i < n) {
+				if (mode == SCAN) {
+					if (state == root) {
+						int start = i;
+						while (i < n && buf[i] != '{') {
+							i++;
+						}
+						if (i > start) out.write(buf, start, i - start);
+						if (i == n) break;
+					}
+					char c = buf[i++];
+					pending.append(c);
+					state = step(state, c);
+					if (state.terminal) {
+						// The header is the end of the pending characters, as no header is the suffix of another
+						write(out, pending, pending.length() - state.depth);
+						mode = state.parameters ? PARAMETERS : VALUE;
+						valueStart = pending.length();
+						line = 0;
+						state = root;
+					} else if (pending.length() > state.depth) {
+						write(out, pending, pending.length() - state.depth);
+					}
+					continue;
+				}
+
+				char c = buf[i];
+				if (pending.length() >= MAX_TOKEN) {
+					write(out, pending, pending.length());
+					lineBreak = 0;
+					mode = SCAN;
+				} else if (lineBreak == 1 && c == '\n') {
+					pending.append(c);
+					lineBreak = 2;
+					i++;
+				} else if (lineBreak == 2 && isBase64(c)) {
+					// The token continues on the next line
+					pending.append(c);
+					lineBreak = 0;
+					line = 1;
+					i++;
+				} else if (lineBreak > 0) {
+					count += finish(out, pending, mode, valueStart, lineBreak);
+					lineBreak = 0;
+					mode = SCAN;
+				} else if (mode == PARAMETERS && c == '}') {
+					pending.append(c);
+					valueStart = pending.length();
+					mode = VALUE;
+					line = 0;
+					i++;
+				} else if (c == '\r' && line == LINE_LENGTH && pending.charAt(pending.length() - 1) != '=') {
+					// A full line continues on the next, unless it ends in padding
+					pending.append(c);
+					lineBreak = 1;
+					i++;
+				} else if (isBase64(c)) {
+					pending.append(c);
+					line++;
+					i++;
+				} else {
+					// The end of the token, the character is scanned again
+					count += finish(out, pending, mode, valueStart, 0);
+					mode = SCAN;
+				}
+			}
+		}
+		if (mode == SCAN) {
+			write(out, pending, pending.length());
+		} else {
+			count += finish(out, pending, mode, valueStart, lineBreak);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the plain text of the token, or the token as is when it is not
+	 * complete, followed by the line break read after it
+	 * 
+	 * @param lineBreak
+	 *            characters at the end of the pending text that are a line
+	 *            break after the token rather than part of it
+	 * @return 1 when the token was resolved
+	 */
+	private static int finish(Writer out, StringBuilder pending, int mode, int valueStart, int lineBreak) throws Exception {
+		if (mode != VALUE || pending.length() - lineBreak == valueStart) {
+			write(out, pending, pending.length());
+			return 0;
+		}
+		String token = pending.substring(0, pending.length() - lineBreak);
+		pending.delete(0, token.length());
+		EncryptedInfo info;
+		String plain;
+		try {
+			info = ObfuscateSecretsHelper.parseObfuscatedSecret(token.replace("\r\n", ""), false);
+			ObfuscatorInf pg = PassphraseObfuscatorFactory.getAdapter(info);
+			plain = new String(pg.decrypt(info));
+		} catch (Exception e) {
+			throw new Exception("Cannot resolve the secret " + token.substring(0, token.indexOf('}') + 1) + ": " + e.getMessage(), e);
+		}
+		out.write(plain);
+		write(out, pending, pending.length());
+		return 1;
+	}
+
+	private static void write(Writer out, StringBuilder pending, int length) throws IOException {
+		if (length <= 0) return;
+		out.append(pending, 0, length);
+		pending.delete(0, length);
+	}
+
+	private static boolean isBase64(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/' || c == '=';
+	}
+
+	private void add(String header, boolean parameters) {
+		Node node = root;
+		for (int i = 0; i < header.length(); i++) {
+			Node next = node.child(header.charAt(i));
+			if (next == null) {
+				next = new Node(i + 1);
+				node.put(header.charAt(i), next);
+			}
+			node = next;
+		}
+		node.terminal = true;
+		node.parameters = parameters;
+	}
+
+	/**
+	 * Sets the failure links breadth first, the longest proper suffix of each
+	 * node that is also a prefix of a header
+	 */
+	private void link() {
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		for (int i = 0; i < root.size; i++) {
+			root.next[i].fail = root;
+			queue.add(root.next[i]);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.poll();
+			for (int i = 0; i < node.size; i++) {
+				Node child = node.next[i];
+				Node fail = node.fail;
+				while (fail != root && fail.child(node.keys[i]) == null) {
+					fail = fail.fail;
+				}
+				Node target = fail.child(node.keys[i]);
+				child.fail = target == null || target == child ? root : target;
+				queue.add(child);
+			}
+		}
+	}
+
+	private Node step(Node node, char c) {
+		while (true) {
+			Node next = node.child(c);
+			if (next != null) return next;
+			if (node == root) return root;
+			node = node.fail;
+		}
+	}
+
+	private static final class Node {
+		final int	depth;
+		char[]		keys	= new char[2];
+		Node[]		next	= new Node[2];
+		int			size;
+		Node		fail;
+		boolean		terminal;
+		boolean		parameters;
+
+		Node(int depth) {
+			this.depth = depth;
+		}
+
+		Node child(char c) {
+			for (int i = 0; i < size; i++) {
+				if (keys[i] == c) return next[i];
+			}
+			return null;
+		}
+
+		void put(char c, Node node) {
+			if (size == keys.length) {
+				char[] k = new char[size * 2];
+				System.arraycopy(keys, 0, k, 0, size);
+				keys = k;
+				Node[] n = new Node[size * 2];
+				System.arraycopy(next, 0, n, 0, size);
+				next = n;
+			}
+			keys[size] = c;
+			next[size++] = node;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls for the same key, the first caller runs the work
+ * and the others wait for its result. Each key has its own in-flight call so
+ * work for unrelated keys never waits on each other. Nothing is kept once the
+ * call completes, callers memoize the result themselves.
+ * 
+ * @author james.holland
+ * 
+ * @param <K>
+ *            key, typically a parameter fingerprint
+ * @param <V>
+ *            result of the work
+ */
+public final class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, FutureTask<V>> calls = new ConcurrentHashMap<K, FutureTask<V>>();
+
+	/**
+	 * Runs the work, or waits for the call already in flight for the key.
+	 * 
+	 * @param key
+	 * @param work
+	 * @return the result of the in-flight call
+	 * @throws Exception
+	 *             thrown by the work
+	 */
+	public V execute(K key, Callable<V> work) throws Exception {
+		FutureTask<V> task = new FutureTask<V>(work);
+		FutureTask<V> running = calls.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				calls.remove(key, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.EntropySource;
+import org.hoggmania.client.util.protection.ObfuscatorInf;
+
+/**
+ * The content of the file or website PWB_URL without line breaks, a website is
+ * read from the {@link HttpEntropyCache}. Unlike
+ * {@link org.hoggmania.client.util.protection.PassphraseObfuscatorURL} a
+ * missing file is not generated.
+ * 
+ * @author james.holland
+ * 
+ */
+public class UrlEntropySource implements EntropySource {
+
+	public static final String NAME = "url";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public Collection<String> getParameterNames() {
+		return Collections.singletonList(ObfuscatorInf.PWB_URL);
+	}
+
+	public String getEntropy(Map<String, String> parameters, List<File> files) throws IOException {
+		if (parameters == null)
+			throw new RuntimeException("REQUIRES_MISSING_PARAMETER=" + ObfuscatorInf.PWB_URL);
+		String url = ObfuscateSecretsHelper.getMapValue(parameters, ObfuscatorInf.PWB_URL, null, false);
+		File file;
+		if (url.toLowerCase().startsWith("http")) {
+			file = HttpEntropyCache.getEntropyFile(url);
+		} else {
+			file = new File(url);
+		}
+		return FileEntropySource.read(file, files);
+	}
+}
@@ -0,0 +1,211 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Rules of the XML values to change, each an XPath expression of the
+ * elements and the attribute to change, or null for the text of the
+ * elements. The rules are compiled once and reused for every file, the rules
+ * within the subset of {@link XmlStreamPath} are applied together in one
+ * walk of the document and the others are evaluated as compiled XPath
+ * expressions. <br>
+ * A rules file has one rule per line, the expression followed by the
+ * attribute name when there is one. Blank lines and lines starting with #
+ * are ignored, e.g. -<br>
+ * <code>//Resource[@type='javax.sql.DataSource'] password<br>
+ * /Server/Service/Connector keystorePass<br>
+ * //env-entry[env-entry-name='db.password']/env-entry-value</code> <br>
+ * Rules are added before use, a set of rules may then be shared by threads.
+ * 
+ * @author james.holland
+ * 
+ */
+public final class XmlRules {
+
+	private final List<String>					expressions	= new ArrayList<String>();
+	private final List<String>					attributes	= new ArrayList<String>();
+	private final List<XmlStreamPath>			paths		= new ArrayList<XmlStreamPath>();
+	// XPathExpression is not thread safe, each thread compiles its own once
+	private final ThreadLocal<XPathExpression[]>	compiled	= new ThreadLocal<XPathExpression[]>();
+
+	/**
+	 * @param expression
+	 *            XPath expression of the elements
+	 * @param attributeName
+	 *            the attribute to change, null for the element text
+	 * @return rules of the one rule
+	 */
+	public static XmlRules of(String expression, String attributeName) {
+		return new XmlRules().add(expression, attributeName);
+	}
+
+	/**
+	 * @param file
+	 *            of the rules
+	 * @return the rules of the file
+	 * @throws IOException
+	 */
+	public static XmlRules load(String file) throws IOException {
+		XmlRules rules = new XmlRules();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				rules.addLine(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return rules;
+	}
+
+	/**
+	 * Adds a rule
+	 * 
+	 * @param expression
+	 *            XPath expression of the elements
+	 * @param attributeName
+	 *            the attribute to change, null for the element text or the
+	 *            attribute selected by the expression
+	 * @return these rules
+	 * @throws IllegalArgumentException
+	 *             when the expression is not valid XPath
+	 */
+	public XmlRules add(String expression, String attributeName) {
+		XmlStreamPath path;
+		try {
+			path = XmlStreamPath.compile(expression);
+			if (attributeName == null) attributeName = path.getAttribute();
+		} catch (IllegalArgumentException e) {
+			path = null;
+			compile(expression);
+		}
+		expressions.add(expression);
+		attributes.add(attributeName);
+		paths.add(path);
+		return this;
+	}
+
+	/**
+	 * Adds the rule of a line of a rules file, the expression ends at the
+	 * first white space outside of a predicate or literal
+	 * 
+	 * @param line
+	 * @return these rules
+	 */
+	public XmlRules addLine(String line) {
+		line = line.trim();
+		if (line.length() == 0 || line.startsWith("#")) return this;
+		int end = 0, brackets = 0;
+		char quote = 0;
+		for (; end < line.length(); end++) {
+			char c = line.charAt(end);
+			if (quote != 0) {
+				if (c == quote) quote = 0;
+			} else if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == '[' || c == '(') {
+				brackets++;
+			} else if (c == ']' || c == ')') {
+				brackets--;
+			} else if (brackets == 0 && Character.isWhitespace(c)) {
+				break;
+			}
+		}
+		String attribute = line.substring(end).trim();
+		return add(line.substring(0, end), attribute.length() == 0 ? null : attribute);
+	}
+
+	/**
+	 * @return number of rules
+	 */
+	public int size() {
+		return expressions.size();
+	}
+
+	public String getExpression(int rule) {
+		return expressions.get(rule);
+	}
+
+	/**
+	 * @return the attribute to change, null for the element text
+	 */
+	public String getAttributeName(int rule) {
+		return attributes.get(rule);
+	}
+
+	/**
+	 * @return true when every rule can be matched while streaming
+	 */
+	public boolean isStreamable() {
+		return !paths.contains(null);
+	}
+
+	/**
+	 * @return the streaming path of the rule, null when it is only XPath
+	 */
+	XmlStreamPath getPath(int rule) {
+		return paths.get(rule);
+	}
+
+	/**
+	 * @return the compiled XPath expression of the rule for this thread
+	 */
+	XPathExpression getXPath(int rule) {
+		XPathExpression[] expressions = compiled.get();
+		if (expressions == null || expressions.length < size()) {
+			expressions = new XPathExpression[size()];
+			compiled.set(expressions);
+		}
+		if (expressions[rule] == null) expressions[rule] = compile(getExpression(rule));
+		return expressions[rule];
+	}
+
+	private static XPathExpression compile(String expression) {
+		XPath xpath = XPathFactory.newInstance().newXPath();
+		try {
+			return xpath.compile(expression);
+		} catch (XPathExpressionException e) {
+			throw new IllegalArgumentException("Invalid XPath " + expression, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size(); i++) {
+			if (i > 0) sb.append('\n');
+			sb.append(getExpression(i));
+			if (getAttributeName(i) != null) sb.append(' ').append(getAttributeName(i));
+		}
+		return sb.toString();
+	}
+}
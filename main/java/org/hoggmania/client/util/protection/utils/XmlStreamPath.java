@@ -0,0 +1,263 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+
+import org.w3c.dom.Element;
+
+/**
+ * The subset of XPath that can be matched while streaming, compiled to a
+ * matcher over the start elements, or the elements of a DOM walked in
+ * document order. The state of the match is a bit set of
+ * the steps matched so far, one long per open element, so the memory needed
+ * depends on the depth of the document, not its size. The forms are: -
+ * <li>/a/b child steps from the root and //a descendant steps, a relative
+ * path starts at the root as with the DOM</li>
+ * <li>* for any element</li>
+ * <li>predicates on the attributes of a step, [@name], [@name='value'] and
+ * [@name!='value']</li>
+ * <li>a final /@name step, which selects that attribute of the elements</li>
+ * Names are matched without a namespace as the XPath of the DOM mode, which
+ * has no namespace context. Anything else, positions, functions, other
+ * axes, is rejected with an IllegalArgumentException.
+ * 
+ * @author james.holland
+ * 
+ */
+final class XmlStreamPath {
+
+	private final String	expression;
+	private final Step[]	steps;
+	private final String	attribute;
+
+	private XmlStreamPath(String expression, List<Step> steps, String attribute) {
+		this.expression = expression;
+		this.steps = steps.toArray(new Step[steps.size()]);
+		this.attribute = attribute;
+	}
+
+	/**
+	 * @param expression
+	 *            XPath expression of the elements
+	 * @return the compiled path
+	 * @throws IllegalArgumentException
+	 *             when the expression is outside the streaming subset
+	 */
+	static XmlStreamPath compile(String expression) {
+		Parser parser = new Parser(expression);
+		List<Step> steps = new ArrayList<Step>();
+		String attribute = null;
+		boolean descendant = false;
+		if (parser.skip("//")) {
+			descendant = true;
+		} else {
+			parser.skip("/");
+		}
+		while (true) {
+			if (parser.skip("@")) {
+				attribute = parser.name();
+				if (!parser.end() || steps.isEmpty()) throw parser.unsupported();
+				break;
+			}
+			Step step = new Step(descendant, parser.name());
+			while (parser.skip("[")) {
+				step.predicates.add(parser.predicate());
+			}
+			steps.add(step);
+			if (parser.end()) break;
+			if (parser.skip("//")) {
+				descendant = true;
+			} else if (parser.skip("/")) {
+				descendant = false;
+			} else {
+				throw parser.unsupported();
+			}
+		}
+		if (steps.size() > 62) throw new IllegalArgumentException("Too many steps to stream " + expression);
+		return new XmlStreamPath(expression, steps, attribute);
+	}
+
+	/**
+	 * @return the attribute selected by a final /@name step, otherwise null
+	 */
+	String getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * @return the state of the document node
+	 */
+	long start() {
+		return 1L;
+	}
+
+	/**
+	 * @param parent
+	 *            state of the parent of the element
+	 * @param element
+	 * @return state of the element
+	 */
+	long enter(long parent, StartElement element) {
+		QName name = element.getName();
+		return enter(parent, name.getNamespaceURI(), name.getLocalPart(), element);
+	}
+
+	/**
+	 * @param parent
+	 *            state of the parent of the element
+	 * @param element
+	 * @return state of the element
+	 */
+	long enter(long parent, Element element) {
+		String local = element.getLocalName() == null ? element.getNodeName() : element.getLocalName();
+		return enter(parent, element.getNamespaceURI(), local, element);
+	}
+
+	private long enter(long parent, String uri, String local, Object element) {
+		long state = 0;
+		for (int i = 0; i < steps.length; i++) {
+			if ((parent & (1L << i)) == 0) continue;
+			// A descendant step may be matched further down
+			if (steps[i].descendant) state |= 1L << i;
+			if (steps[i].matches(uri, local, element)) state |= 1L << (i + 1);
+		}
+		return state;
+	}
+
+	/**
+	 * @return true when the element of the state is selected
+	 */
+	boolean matched(long state) {
+		return (state & (1L << steps.length)) != 0;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	private static final class Step {
+		final boolean			descendant;
+		final String			name;
+		final List<String[]>	predicates	= new ArrayList<String[]>();
+
+		Step(boolean descendant, String name) {
+			this.descendant = descendant;
+			this.name = name;
+		}
+
+		boolean matches(String uri, String local, Object element) {
+			if (!"*".equals(name)) {
+				if (!name.equals(local) || (uri != null && uri.length() > 0)) return false;
+			}
+			for (String[] predicate : predicates) {
+				String value = attribute(element, predicate[0]);
+				if (predicate[1] == null) {
+					if (value == null) return false;
+				} else if ("=".equals(predicate[1])) {
+					if (value == null || !predicate[2].equals(value)) return false;
+				} else if (value == null || predicate[2].equals(value)) {
+					// As XPath, != is only true of an attribute that is present
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return value of the attribute without a namespace, null when absent
+		 */
+		private static String attribute(Object element, String name) {
+			if (element instanceof StartElement) {
+				Attribute attr = ((StartElement) element).getAttributeByName(new QName(name));
+				return attr == null ? null : attr.getValue();
+			}
+			Element dom = (Element) element;
+			return dom.hasAttributeNS(null, name) ? dom.getAttributeNS(null, name) : null;
+		}
+	}
+
+	private static final class Parser {
+		private final String	text;
+		private int				pos;
+
+		Parser(String text) {
+			if (text == null) throw new IllegalArgumentException("No expression");
+			this.text = text.trim();
+		}
+
+		boolean end() {
+			return pos == text.length();
+		}
+
+		boolean skip(String token) {
+			if (!text.startsWith(token, pos)) return false;
+			pos += token.length();
+			return true;
+		}
+
+		String name() {
+			if (skip("*")) return "*";
+			int start = pos;
+			while (pos < text.length()) {
+				char c = text.charAt(pos);
+				if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) break;
+				pos++;
+			}
+			if (pos == start || Character.isDigit(text.charAt(start)) || (pos < text.length() && text.charAt(pos) == '(')) {
+				throw unsupported();
+			}
+			return text.substring(start, pos);
+		}
+
+		/**
+		 * @return attribute name, operator or null and value
+		 */
+		String[] predicate() {
+			if (!skip("@")) throw unsupported();
+			String[] predicate = new String[3];
+			predicate[0] = name();
+			if (skip("!=")) {
+				predicate[1] = "!=";
+			} else if (skip("=")) {
+				predicate[1] = "=";
+			}
+			if (predicate[1] != null) {
+				char quote = pos < text.length() ? text.charAt(pos) : 0;
+				if (quote != '\'' && quote != '"') throw unsupported();
+				int close = text.indexOf(quote, pos + 1);
+				if (close < 0) throw unsupported();
+				predicate[2] = text.substring(pos + 1, close);
+				pos = close + 1;
+			}
+			if (!skip("]")) throw unsupported();
+			return predicate;
+		}
+
+		IllegalArgumentException unsupported() {
+			return new IllegalArgumentException("XPath not supported for streaming at " + pos + " of " + text);
+		}
+	}
+}
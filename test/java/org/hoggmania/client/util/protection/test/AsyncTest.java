@@ -0,0 +1,70 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+/**
+ * Test of asynchronous de-obfuscation
+ * 
+ * @author james.holland
+ * 
+ */
+public class AsyncTest {
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			String plain = "James jumped over the quick brown fox";
+			String encryptedPropValue;
+			Map<String, String> map;
+
+			File entropyFile = File.createTempFile("async", ".entropy");
+			Files.write(entropyFile.toPath(), "0123456789abcdef\r\nfedcba9876543210\n".getBytes());
+			map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			map.put(ObfuscatorInf.PWB_URL, entropyFile.getPath());
+			encryptedPropValue = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+			if (logging) System.out.println("Text from EncryptedInfo is =" + encryptedPropValue);	
+
+			// Concurrent requests for the same secret share the in-flight de-obfuscation
+			CompletableFuture<String> first = ObfuscateSecretsHelper.parseObfuscatedSecretAndDecryptAsync(encryptedPropValue);
+			CompletableFuture<String> second = ObfuscateSecretsHelper.parseObfuscatedSecretAndDecryptAsync(encryptedPropValue);
+			assert(first.get().equals(plain) && second.get().equals(plain)) : "parseObfuscatedSecretAndDecryptAsync does not return correct de-obfusacted value";
+			if (logging) System.out.println("async decrypted secret =" + first.get());
+
+			// Cancelling one caller's future leaves the other request running
+			first = ObfuscateSecretsHelper.parseObfuscatedSecretAndDecryptAsync(encryptedPropValue);
+			second = ObfuscateSecretsHelper.parseObfuscatedSecretAndDecryptAsync(encryptedPropValue);
+			first.cancel(true);
+			assert(second.get().equals(plain)) : "Cancelling one asynchronous de-obfuscation cancelled another caller";
+
+			Files.delete(entropyFile.toPath());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
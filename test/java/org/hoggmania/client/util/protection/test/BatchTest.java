@@ -0,0 +1,88 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+/**
+ * Test of de-obfuscating many secrets in one call, sequentially and with
+ * the groups in parallel
+ * 
+ * @author james.holland
+ * 
+ */
+public class BatchTest {
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			String plain = "James jumped over the quick brown fox";
+
+			// Secrets of two implementations and a corrupt one
+			File entropyFile = File.createTempFile("batch", ".entropy");
+			Files.write(entropyFile.toPath(), "0123456789abcdef\r\nfedcba9876543210\n".getBytes());
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			map.put(ObfuscatorInf.PWB_URL, entropyFile.getPath());
+			List<EncryptedInfo> batch = new ArrayList<EncryptedInfo>();
+			for (int i = 0; i < 10; i++) {
+				batch.add(ObfuscateSecretsHelper.parseObfuscatedSecret(ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain + i, map)));
+				batch.add(ObfuscateSecretsHelper.parseObfuscatedSecret(plain + i));
+			}
+			batch.add(new EncryptedInfo(new byte[] { 1, 2, 3 }, PassphraseObfuscatorURL.class.getName(), null));
+
+			// The input order is kept and failures are reported per secret
+			List<DecryptResult> results = ObfuscateSecretsHelper.deObfuscateAll(batch);
+			for (int i = 0; i < 20; i++) {
+				assert(new String(results.get(i).getValue()).equals(plain + (i / 2))) : "deObfuscateAll returned a value out of order";
+			}
+			assert(!results.get(20).isSuccess()) : "deObfuscateAll did not report the corrupt secret";
+			if (logging) System.out.println("batch results =" + results.size() + " last=" + results.get(20));
+
+			// The groups decrypted in parallel give the sequential results
+			ExecutorService executor = Executors.newFixedThreadPool(3);
+			try {
+				List<DecryptResult> parallel = ObfuscateSecretsHelper.deObfuscateAll(batch, executor);
+				assert(parallel.size() == results.size()) : "Parallel deObfuscateAll returned a different number of results";
+				for (int i = 0; i < results.size(); i++) {
+					assert(parallel.get(i).isSuccess() == results.get(i).isSuccess()) : "Parallel deObfuscateAll differs from sequential at " + i;
+					if (results.get(i).isSuccess()) assert(Arrays.equals(parallel.get(i).getValue(), results.get(i).getValue())) : "Parallel deObfuscateAll differs from sequential at " + i;
+				}
+			} finally {
+				executor.shutdown();
+			}
+			if (logging) System.out.println("parallel batch results =" + results.size());
+
+			Files.delete(entropyFile.toPath());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
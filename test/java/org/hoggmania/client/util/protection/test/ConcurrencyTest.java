@@ -0,0 +1,100 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+/**
+ * Stress test sharing one adapter between many threads decrypting secrets
+ * obfuscated with different parameter sets
+ * 
+ * @author james.holland
+ * 
+ */
+public class ConcurrencyTest {
+
+	private static final int	THREADS		= 200;
+	private static final int	ITERATIONS	= 50;
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			String[] hashes = new String[] { "SHA-512", "SHA-256", "SHA-1" };
+			final List<EncryptedInfo> secrets = new ArrayList<EncryptedInfo>();
+			final List<String> plains = new ArrayList<String>();
+
+			//Obfuscate with a different parameter set per hash algorithm
+			for (int i = 0; i < hashes.length; i++) {
+				Map<String, String> map = new java.util.HashMap<String, String>();
+				map.put(ObfuscatorInf.PWB_ALGORITM_HASH, hashes[i]);
+				map.put(ObfuscatorInf.PWB_OVERRIDE_NETWORK_ENTROPY, "00163e5e6c0000163e5e6c01");
+				map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorHash.class.getName());
+				String plain = "secret number " + i;
+				EncryptedInfo info = ObfuscateSecretsHelper.parseObfuscatedSecret(ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map));
+				secrets.add(info);
+				plains.add(plain);
+			}
+
+			//One adapter shared by every thread
+			final ObfuscatorInf shared = PassphraseObfuscatorFactory.getAdapter(secrets.get(0));
+			final AtomicInteger failures = new AtomicInteger();
+			final CountDownLatch start = new CountDownLatch(1);
+			ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+			long time = System.currentTimeMillis();
+			for (int t = 0; t < THREADS; t++) {
+				final int offset = t;
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							start.await();
+							for (int i = 0; i < ITERATIONS; i++) {
+								int index = (offset + i) % secrets.size();
+								String clear = new String(shared.decrypt(secrets.get(index)));
+								if (!clear.equals(plains.get(index))) failures.incrementAndGet();
+							}
+						} catch (Exception e) {
+							failures.incrementAndGet();
+						}
+					}
+				});
+			}
+			start.countDown();
+			pool.shutdown();
+			pool.awaitTermination(5, TimeUnit.MINUTES);
+
+			if (logging) System.out.println((THREADS * ITERATIONS) + " concurrent decrypts in " + (System.currentTimeMillis() - time) + "ms with " + failures.get() + " failures");
+			assert(failures.get() == 0) : "Shared adapter returned wrong values under concurrency";
+			if (failures.get() != 0) throw new IllegalStateException(failures.get() + " concurrent decrypts failed");
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+/**
+ * Test that replacing the entropy file invalidates the values derived from it
+ * 
+ * @author james.holland
+ * 
+ */
+public class EntropyWatchTest {
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			File directory = Files.createTempDirectory("entropy-watch").toFile();
+			File entropy = new File(directory, "machine.entropy");
+			Files.write(entropy.toPath(), "0123456789abcdef0123456789abcdef".getBytes("UTF-8"));
+
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_URL, entropy.getPath());
+			map.put(ObfuscatorInf.PWB_DO_NOT_GENERATE_ENTROPY, "true");
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			String plain = "James jumped over the quick brown fox";
+			String before = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+			assert(ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map).equals(before)) : "Derived values were not reused";
+
+			//Replace the file the way an editor or deployment would, in a burst
+			File temp = new File(directory, "machine.entropy.tmp");
+			for (int i = 0; i < 5; i++) {
+				Files.write(temp.toPath(), ("fedcba9876543210fedcba9876543210" + i).getBytes("UTF-8"));
+				Files.move(temp.toPath(), entropy.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+
+			String after = before;
+			for (int i = 0; i < 100 && after.equals(before); i++) {
+				Thread.sleep(100);
+				after = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+			}
+			assert(!after.equals(before)) : "Change of the entropy file was not picked up";
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(after).equals(plain)) : "De-obfuscation with the new entropy failed";
+			if (logging) System.out.println("before=" + before + " after=" + after);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
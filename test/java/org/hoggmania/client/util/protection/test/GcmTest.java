@@ -0,0 +1,67 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+/**
+ * Test of obfuscating with AES-GCM and the default entropy file
+ * 
+ * @author james.holland
+ * 
+ */
+public class GcmTest {
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			String plain = "James jumped over the quick brown fox";
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorGCM.class.getName());
+			String encryptedPropValue = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+			if (logging) System.out.println("Text from EncryptedInfo is =" + encryptedPropValue);	
+			assert(encryptedPropValue != null) : "PassphraseObfuscatorGCM failed to obfuscate text";
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(encryptedPropValue).equals(plain)) : "PassphraseObfuscatorGCM does not return correct de-obfusacted value for encode version";
+			if (logging) System.out.println("decrypted secret =" + ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(encryptedPropValue));
+
+			// A value sealed with other parameters derives its key once
+			map.put(PassphraseObfuscatorGCM.PWB_KDF_ITERATION, "200000");
+			PassphraseObfuscatorGCM other = new PassphraseObfuscatorGCM();
+			other.initializeParameters(map);
+			EncryptedInfo sealed = other.encrypt(plain.getBytes());
+			PassphraseObfuscatorGCM adapter = new PassphraseObfuscatorGCM();
+			long first = System.nanoTime();
+			assert(new String(adapter.decrypt(sealed)).equals(plain)) : "PassphraseObfuscatorGCM does not open a value sealed with other parameters";
+			first = System.nanoTime() - first;
+			long repeat = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				assert(new String(adapter.decrypt(sealed)).equals(plain)) : "PassphraseObfuscatorGCM does not open a value sealed with other parameters";
+			}
+			repeat = System.nanoTime() - repeat;
+			if (logging) System.out.println("first decrypt " + first / 1000 + "us, next 10 " + repeat / 1000 + "us");
+			assert(repeat < first) : "PassphraseObfuscatorGCM derived the key of other parameters again";
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
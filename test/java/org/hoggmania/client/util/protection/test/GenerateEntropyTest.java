@@ -0,0 +1,105 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+/**
+ * Test that processes starting together on a host without an entropy file
+ * generate it once and all use the same entropy
+ * 
+ * @author james.holland
+ * 
+ */
+public class GenerateEntropyTest {
+
+	private static final int PROCESSES = 4;
+
+	public static void main(String[] args) {
+		try {
+			if (args.length > 0) {
+				//Child process, obfuscate with the default entropy file
+				Map<String, String> map = new java.util.HashMap<String, String>();
+				map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+				System.out.println("secret=" + ObfuscateSecretsHelper.obfuscatedSecretAndWrite("James jumped over the quick brown fox", map));
+				return;
+			}
+
+			boolean logging = true;
+
+			//Generation started while the file already exists keeps the file
+			File existing = Files.createTempDirectory("entropy-existing").toFile();
+			File entropy = new File(existing, "org.hoggmania.entropy");
+			Files.write(entropy.toPath(), "existing entropy".getBytes("UTF-8"));
+			String userHome = System.getProperty("user.home");
+			System.setProperty("user.home", existing.getPath());
+			try {
+				new PassphraseObfuscatorURL() {
+					void generate() {
+						generateEntropy();
+					}
+				}.generate();
+			} finally {
+				System.setProperty("user.home", userHome);
+			}
+			assert(new String(Files.readAllBytes(entropy.toPath()), "UTF-8").equals("existing entropy")) : "Existing entropy file was replaced";
+
+			File home = Files.createTempDirectory("entropy-home").toFile();
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			List<Process> processes = new ArrayList<Process>();
+			long time = System.currentTimeMillis();
+			for (int i = 0; i < PROCESSES; i++) {
+				processes.add(new ProcessBuilder(java, "-Duser.home=" + home.getPath(), "-cp", System.getProperty("java.class.path"),
+						GenerateEntropyTest.class.getName(), "child").redirectErrorStream(true).start());
+			}
+
+			Set<String> secrets = new HashSet<String>();
+			for (Process process : processes) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith("secret=")) secrets.add(line);
+				}
+				process.waitFor();
+			}
+			time = System.currentTimeMillis() - time;
+
+			assert(secrets.size() == 1) : "Processes used different entropy " + secrets;
+			assert(new File(home, "org.hoggmania.entropy").length() > 0) : "Entropy file was not generated";
+			for (File file : home.listFiles()) {
+				assert(!file.getName().endsWith(".tmp")) : "Temporary entropy file left behind " + file;
+			}
+			if (logging) System.out.println(PROCESSES + " processes generated one entropy file in " + time + "ms");
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
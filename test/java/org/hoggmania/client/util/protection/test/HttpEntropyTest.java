@@ -0,0 +1,129 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.HttpEntropyCache;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test of the http entropy cache against a local http server
+ * 
+ * @author james.holland
+ * 
+ */
+public class HttpEntropyTest {
+
+	private static final String		ENTROPY		= "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+	private static final String		ETAG		= "\"v1\"";
+
+	private static final AtomicInteger	downloads	= new AtomicInteger();
+	private static final AtomicInteger	notModified	= new AtomicInteger();
+
+	public static void main(String[] args) {
+		HttpServer server = null;
+		try {
+			boolean logging = true;
+			File cache = Files.createTempDirectory("entropy-cache").toFile();
+			System.setProperty(HttpEntropyCache.PWB_HTTP_CACHE_DIR, cache.getPath());
+			System.setProperty(HttpEntropyCache.PWB_HTTP_READ_TIMEOUT, "500");
+
+			server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			server.createContext("/entropy", new HttpHandler() {
+				public void handle(HttpExchange exchange) throws IOException {
+					if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+						notModified.incrementAndGet();
+						exchange.sendResponseHeaders(304, -1);
+					} else {
+						downloads.incrementAndGet();
+						byte[] body = ENTROPY.getBytes("UTF-8");
+						exchange.getResponseHeaders().set("ETag", ETAG);
+						exchange.sendResponseHeaders(200, body.length);
+						OutputStream out = exchange.getResponseBody();
+						out.write(body);
+						out.close();
+					}
+					exchange.close();
+				}
+			});
+			server.createContext("/slow", new HttpHandler() {
+				public void handle(HttpExchange exchange) throws IOException {
+					try {
+						Thread.sleep(3000);
+					} catch (InterruptedException e) {
+					}
+					exchange.close();
+				}
+			});
+			server.start();
+			String url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+			//Obfuscate with remote entropy, it is downloaded once
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_URL, url + "/entropy");
+			map.put(ObfuscatorInf.PWB_DO_NOT_GENERATE_ENTROPY, "true");
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			String plain = "James jumped over the quick brown fox";
+			String encryptedPropValue = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(encryptedPropValue).equals(plain)) : "PassphraseObfuscatorURL does not return correct de-obfusacted value for remote entropy";
+			HttpEntropyCache.getEntropyFile(url + "/entropy");
+			assert(downloads.get() == 1) : "Fresh cached entropy was downloaded again";
+
+			//An expired copy is returned straight away and revalidated with the ETag
+			System.setProperty(HttpEntropyCache.PWB_HTTP_MAX_AGE, "0");
+			File file = HttpEntropyCache.getEntropyFile(url + "/entropy");
+			assert(new String(Files.readAllBytes(file.toPath()), "UTF-8").equals(ENTROPY)) : "Cached entropy does not match";
+			for (int i = 0; i < 50 && notModified.get() == 0; i++) Thread.sleep(100);
+			assert(notModified.get() == 1 && downloads.get() == 1) : "Expired entropy was not revalidated with If-None-Match";
+
+			//A slow endpoint without a cached copy fails on the read timeout
+			long time = System.currentTimeMillis();
+			try {
+				HttpEntropyCache.getEntropyFile(url + "/slow");
+				assert(false) : "Slow endpoint did not time out";
+			} catch (IOException e) {
+				assert(System.currentTimeMillis() - time < 2500) : "Read timeout was not applied";
+			}
+
+			//The cached copy is still used when the server has gone
+			server.stop(0);
+			server = null;
+			PassphraseObfuscatorFactory.invalidate();
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(encryptedPropValue).equals(plain)) : "Cached entropy was not used without the server";
+			if (logging) System.out.println("downloads=" + downloads.get() + " not modified=" + notModified.get());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (server != null) server.stop(0);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsInJson;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsInTree;
+
+/**
+ * Test of obfuscating a JSON file by streaming it
+ * 
+ * @author james.holland
+ * 
+ */
+public class JsonTest {
+
+	private static final int FILLER = 20000;
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			StringBuilder json = new StringBuilder();
+			json.append("{\r\n");
+			json.append("  \"db\" : { \"user\": \"app\", \"password\": \"James jumped\", \"port\": 5432 },\n");
+			json.append("  \"servers\": [ {\"name\":\"a\",\"password\":\"over the \\\"fox\\\"\"}, {\"name\":\"b\",\"password\":\"quick\\\\brown\"}, {\"name\":\"c\"} ],\n");
+			json.append("  \"a/b\": \"slash\", \"pin\": 1234, \"flags\": [true, false, null, -1.5e3],\n");
+			json.append("  \"nested\": {\"deep\": {\"apiKey\": \"lazy dog\", \"list\": [\"x\", {\"apiKey\": \"k2\"}]}},\n");
+			json.append("  \"filler\": [");
+			// Larger than the read buffer, so values straddle the refills
+			for (int i = 0; i < FILLER; i++) {
+				if (i > 0) json.append(", ");
+				json.append("{\"id\": ").append(i).append(", \"text\": \"caf\\u00e9 \\n ").append(i).append("\", \"secret\": \"value ").append(i).append("\"}");
+			}
+			json.append("],\n");
+			json.append("  \"done\": {}\n");
+			json.append("}\n");
+			byte[] original = json.toString().getBytes("UTF-8");
+			Path file = Files.createTempFile("config", ".json");
+			Files.write(file, original);
+
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			String[] paths = new String[] { "/db/password", "/servers/*/password", "**.apiKey", "/a~1b", "pin", "/filler/*/secret" };
+
+			long time = System.currentTimeMillis();
+			int count = ObfuscateSecretsInJson.obfuscateFile(file.toString(), paths, map);
+			if (logging) System.out.println("Obfuscated " + count + " values in " + (System.currentTimeMillis() - time) + "ms");
+			assert(count == 6 + FILLER) : "Wrong number of values obfuscated " + count;
+			String obfuscated = new String(Files.readAllBytes(file), "UTF-8");
+			assert(!obfuscated.contains("James jumped") && !obfuscated.contains("lazy dog") && !obfuscated.contains("\"value 10\"")) : "Values were not obfuscated";
+			assert(obfuscated.contains("\"user\": \"app\"") && obfuscated.contains("\"pin\": 1234") && obfuscated.contains("\"text\": \"caf\\u00e9 \\n 10\"")) : "Other values were changed";
+			assert(obfuscated.startsWith("{\r\n  \"db\" : { \"user\"")) : "Formatting was changed";
+
+			// Values already obfuscated are left
+			assert(ObfuscateSecretsInJson.obfuscateFile(file.toString(), paths, map) == 0) : "Obfuscated values were obfuscated again";
+
+			count = ObfuscateSecretsInJson.deObfuscateFile(file.toString(), paths, map);
+			assert(count == 6 + FILLER) : "Wrong number of values de-obfuscated " + count;
+			assert(Arrays.equals(original, Files.readAllBytes(file))) : "De-obfuscated file differs from the original";
+
+			// Nothing selected, the file is not rewritten
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			Thread.sleep(20);
+			assert(ObfuscateSecretsInJson.obfuscateFile(file.toString(), new String[] { "/missing" }, map) == 0) : "Missing path matched";
+			assert(Files.getLastModifiedTime(file).toMillis() == modified) : "File was rewritten without changes";
+
+			Path invalid = Files.createTempFile("invalid", ".json");
+			Files.write(invalid, "{\"password\": \"secret\", \"other\" 1}".getBytes("UTF-8"));
+			try {
+				ObfuscateSecretsInJson.obfuscateFile(invalid.toString(), new String[] { "password" }, map);
+				assert(false) : "Invalid JSON was accepted";
+			} catch (IOException e) {
+				if (logging) System.out.println(e.getMessage());
+			}
+			assert(new String(Files.readAllBytes(invalid), "UTF-8").contains("\"secret\"")) : "Invalid file was changed";
+
+			// JSON files of a tree are selected by the property keys
+			Path root = Files.createTempDirectory("jsontree");
+			Files.write(root.resolve("service.json"), "{\"db\": {\"password\": \"secret\"}}".getBytes("UTF-8"));
+			ObfuscateSecretsInTree tree = new ObfuscateSecretsInTree(root, true);
+			tree.setPropertyKeys(new String[] { "**.password" });
+			tree.setMap(map);
+			ObfuscateSecretsInTree.Summary summary = tree.run();
+			assert(summary.getProcessed() == 1 && summary.getValues() == 1) : "JSON file of the tree was not obfuscated " + summary;
+
+			// regex: keys select property keys only, they are rejected for JSON
+			try {
+				ObfuscateSecretsInJson.obfuscateFile(file.toString(), new String[] { "regex:.*password" }, map);
+				assert(false) : "regex: path was accepted for JSON";
+			} catch (IllegalArgumentException e) {
+				if (logging) System.out.println(e.getMessage());
+			}
+			Files.write(root.resolve("app.properties"), "db.password=secret\n".getBytes("UTF-8"));
+			tree = new ObfuscateSecretsInTree(root, true);
+			tree.setPropertyKeys(new String[] { "regex:.*password" });
+			tree.setMap(map);
+			try {
+				tree.run();
+				assert(false) : "regex: key was accepted for a tree with JSON files";
+			} catch (IllegalArgumentException e) {
+				if (logging) System.out.println(e.getMessage());
+			}
+			assert(new String(Files.readAllBytes(root.resolve("app.properties")), "UTF-8").contains("=secret")) : "Tree was changed before the regex: key was rejected";
+			tree.setExcludes("*.json");
+			summary = tree.run();
+			assert(summary.getProcessed() == 1 && summary.getValues() == 1) : "regex: key did not select the properties without JSON files " + summary;
+			Files.delete(root.resolve("app.properties"));
+
+			Files.delete(root.resolve("service.json"));
+			Files.delete(root);
+			Files.delete(invalid);
+			Files.delete(file);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+
+/**
+ * Test of obfuscating with the machine identity
+ * 
+ * @author james.holland
+ * 
+ */
+public class MachineTest {
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			String plain = "James jumped over the quick brown fox";
+			String encryptedPropValue;
+			Map<String, String> map;
+
+			// Copies of the machine files, the second with a container bridge added
+			String[] sealed = new String[2];
+			for (int i = 0; i < 2; i++) {
+				Path root = Files.createTempDirectory("machine");
+				Files.createDirectories(root.resolve("etc"));
+				Files.write(root.resolve("etc/machine-id"), "2f792dd09acb41229091a963bed5b2c7\n".getBytes());
+				Files.createDirectories(root.resolve("sys/class/net/eth0"));
+				Files.write(root.resolve("sys/class/net/eth0/address"), "52:54:00:12:34:56\n".getBytes());
+				if (i == 1) {
+					// A container bridge must not change the entropy
+					Files.createDirectories(root.resolve("sys/class/net/veth1a2b3c"));
+					Files.write(root.resolve("sys/class/net/veth1a2b3c/address"), "86:1f:0e:aa:bb:cc\n".getBytes());
+				}
+				map = new java.util.HashMap<String, String>();
+				map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorMachine.class.getName());
+				map.put(PassphraseObfuscatorMachine.PWB_MACHINE_ROOT, root.toString());
+				encryptedPropValue = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+				if (logging) System.out.println("Text from EncryptedInfo is =" + encryptedPropValue);	
+				assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(encryptedPropValue).equals(plain)) : "PassphraseObfuscatorMachine does not return correct de-obfusacted value for encode version";
+				sealed[i] = encryptedPropValue.substring(encryptedPropValue.indexOf('}'));
+			}
+			assert(sealed[0].equals(sealed[1])) : "PassphraseObfuscatorMachine entropy changed by an excluded interface";
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hoggmania.client.util.protection.EntropySources;
+import org.hoggmania.client.util.protection.utils.FindNetworkEntropy;
+import org.hoggmania.client.util.protection.utils.MacEntropySource;
+
+/**
+ * Test that refreshing the network entropy invalidates the values derived
+ * from it
+ * 
+ * @author james.holland
+ * 
+ */
+public class NetworkEntropyTest {
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			final AtomicInteger invalidated = new AtomicInteger();
+			FindNetworkEntropy.register("test", new Runnable() {
+				public void run() {
+					invalidated.incrementAndGet();
+				}
+			});
+			String before = EntropySources.getEntropy(MacEntropySource.NAME, null, null);
+			assert(before == EntropySources.getEntropy(MacEntropySource.NAME, null, null)) : "EntropySources did not share the snapshot";
+
+			FindNetworkEntropy.refresh();
+			assert(invalidated.get() == 1) : "Invalidation did not run on refresh " + invalidated.get();
+			String after = EntropySources.getEntropy(MacEntropySource.NAME, null, null);
+			assert(before != after) : "Snapshot of the addresses was not read again after refresh";
+			assert(before.equals(after)) : "Addresses changed without a change of interface";
+
+			FindNetworkEntropy.refresh();
+			assert(invalidated.get() == 1) : "Invalidation ran again without being registered again";
+			if (logging) System.out.println("Network entropy refreshed, " + after.length() + " characters");
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
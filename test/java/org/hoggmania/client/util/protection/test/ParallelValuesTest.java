@@ -0,0 +1,134 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretInXML;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsInProperties;
+import org.hoggmania.client.util.protection.utils.XmlRules;
+
+/**
+ * Test of encrypting the values of a document in parallel, the files written
+ * must be the same as the sequential ones
+ * 
+ * @author james.holland
+ * 
+ */
+public class ParallelValuesTest {
+
+	private static final int SECRETS = 2000;
+	private static final int TAIL = 200000;
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+
+			StringBuilder content = new StringBuilder("# Service catalog\n");
+			StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Catalog>\n");
+			for (int i = 0; i < SECRETS; i++) {
+				content.append("service.").append(i).append(".password=secret ").append(i).append('\n');
+				content.append("service.").append(i).append(".url=http://host/").append(i).append('\n');
+				xml.append("  <Service name=\"s").append(i).append("\" password=\"secret ").append(i).append("\"><Token>token ").append(i).append("</Token></Service>\n");
+			}
+			xml.append("</Catalog>\n");
+			XmlRules rules = new XmlRules().add("//Service", "password").add("//Token", null);
+			String[] keys = new String[] { "**.password" };
+
+			// Warm the key derivation so the timings compare the encryption
+			ObfuscateSecretsHelper.obfuscate("warm", map);
+
+			Path sequential = write("sequential", ".properties", content);
+			Path parallel = write("parallel", ".properties", content);
+			Path sequentialXml = write("sequential", ".xml", xml);
+			Path parallelXml = write("parallel", ".xml", xml);
+
+			System.setProperty(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES, "false");
+			long time = System.currentTimeMillis();
+			int count = ObfuscateSecretsInProperties.obfuscateFile(sequential.toString(), keys, map, false);
+			count += ObfuscateSecretInXML.processFile(sequentialXml.toString(), rules, map, true);
+			long sequentialTime = System.currentTimeMillis() - time;
+			assert(count == 3 * SECRETS) : "Wrong number of values obfuscated " + count;
+
+			System.setProperty(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES, "true");
+			time = System.currentTimeMillis();
+			count = ObfuscateSecretsInProperties.obfuscateFile(parallel.toString(), keys, map, false);
+			count += ObfuscateSecretInXML.processFile(parallelXml.toString(), rules, map, true);
+			long parallelTime = System.currentTimeMillis() - time;
+			if (logging) System.out.println("Sequential " + sequentialTime + "ms parallel " + parallelTime + "ms");
+			assert(count == 3 * SECRETS) : "Wrong number of values obfuscated in parallel " + count;
+			assert(Arrays.equals(Files.readAllBytes(sequential), Files.readAllBytes(parallel))) : "Parallel properties file differs";
+			assert(Arrays.equals(Files.readAllBytes(sequentialXml), Files.readAllBytes(parallelXml))) : "Parallel XML file differs";
+
+			Properties props = new Properties();
+			props.load(new java.io.StringReader(content.toString()));
+			System.setProperty(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES, "false");
+			Properties expected = ObfuscateSecretsInProperties.obfuscateFile(props, keys, map, false);
+			System.setProperty(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES, "true");
+			Properties actual = ObfuscateSecretsInProperties.obfuscateFile(props, keys, map, false);
+			assert(expected.equals(actual)) : "Parallel properties differ";
+			assert(ObfuscateSecretsInProperties.deObfuscateFile(actual, keys, map, false).equals(props)) : "Parallel de-obfuscation differs";
+
+			count = ObfuscateSecretsInProperties.deObfuscateFile(parallel.toString(), keys, map, false);
+			count += ObfuscateSecretInXML.processFile(parallelXml.toString(), rules, map, false);
+			assert(count == 3 * SECRETS) : "Wrong number of values de-obfuscated in parallel " + count;
+			Properties restored = new Properties();
+			restored.load(Files.newInputStream(parallel));
+			assert(restored.equals(props)) : "Parallel de-obfuscation of the file differs";
+			assert(new String(Files.readAllBytes(parallelXml), "UTF-8").contains("password=\"secret " + (SECRETS - 1) + "\"")) : "Parallel de-obfuscation of the XML differs";
+
+			// A few values followed by a tail larger than the text queued behind them
+			StringBuilder tail = new StringBuilder("first.password=secret first\n");
+			for (int i = 0; i < TAIL; i++) {
+				tail.append("tail.").append(i).append("=value ").append(i).append('\n');
+			}
+			tail.append("last.password=secret last\n");
+			Path sequentialTail = write("sequential", ".properties", tail);
+			Path parallelTail = write("parallel", ".properties", tail);
+			System.setProperty(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES, "false");
+			count = ObfuscateSecretsInProperties.obfuscateFile(sequentialTail.toString(), keys, map, false);
+			System.setProperty(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES, "true");
+			count += ObfuscateSecretsInProperties.obfuscateFile(parallelTail.toString(), keys, map, false);
+			assert(count == 4) : "Wrong number of values obfuscated with a large tail " + count;
+			assert(Arrays.equals(Files.readAllBytes(sequentialTail), Files.readAllBytes(parallelTail))) : "Parallel properties file with a large tail differs";
+
+			System.clearProperty(ObfuscateSecretsHelper.PWB_PARALLEL_VALUES);
+			for (Path file : new Path[] { sequential, parallel, sequentialXml, parallelXml, sequentialTail, parallelTail }) {
+				Files.delete(file);
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static Path write(String prefix, String suffix, CharSequence content) throws Exception {
+		Path file = Files.createTempFile(prefix, suffix);
+		Files.write(file, content.toString().getBytes("UTF-8"));
+		return file;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.DecryptingProperties;
+import org.hoggmania.client.util.protection.utils.KeySelector;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsInProperties;
+
+/**
+ * Test of obfuscating a properties file in place
+ * 
+ * @author james.holland
+ * 
+ */
+public class PropertiesTest {
+
+	private static final int FILLER = 20000;
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			File file = File.createTempFile("secrets", ".properties");
+			StringBuilder content = new StringBuilder();
+			content.append("# Comment kept\r\n");
+			content.append("! db.password=not a key\r\n");
+			content.append("db.password=James jumped\r\n");
+			content.append("\r\n");
+			content.append("  mail.password : over the \\\r\n");
+			content.append("      quick brown fox\r\n");
+			content.append("caf\\u00e9.secret=cafe\n");
+			content.append("hsm.pin 1234\n");
+			// Larger than the old fixed read buffer
+			for (int i = 0; i < FILLER; i++) {
+				content.append("filler.").append(i).append("=value ").append(i).append('\n');
+			}
+			content.append("last.password=end");
+			Files.write(file.toPath(), content.toString().getBytes("ISO-8859-1"));
+
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			String[] keys = { "db.password", "mail.password", "caf\u00e9.secret", "hsm.pin", "last.password" };
+			long time = System.currentTimeMillis();
+			ObfuscateSecretsInProperties.obfuscateFile(file.getPath(), keys, map, false);
+			time = System.currentTimeMillis() - time;
+
+			Properties props = load(file);
+			String text = new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+			assert(text.startsWith("# Comment kept\r\n! db.password=not a key\r\n")) : "Comments were not kept";
+			assert(text.contains("\r\n\r\n")) : "Line endings were not kept";
+			assert(props.getProperty("filler." + (FILLER - 1)).equals("value " + (FILLER - 1))) : "Properties after the old buffer size were lost";
+			assert(props.size() == keys.length + FILLER) : "Properties were added or lost";
+			for (String key : keys) {
+				assert(props.getProperty(key).startsWith("{")) : key + " was not obfuscated";
+			}
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(props.getProperty("mail.password")).equals("over the quick brown fox")) : "Continued value was not obfuscated whole";
+
+			//Secrets are only de-obfuscated when read
+			DecryptingProperties secrets = new DecryptingProperties(props, 2, 0);
+			assert(secrets.getDecryptedCount() == 0) : "DecryptingProperties decrypted up front";
+			assert(secrets.getProperty("hsm.pin").equals("1234")) : "DecryptingProperties did not de-obfuscate hsm.pin";
+			assert(secrets.getProperty("hsm.pin") == secrets.getProperty("hsm.pin")) : "DecryptingProperties did not keep the decrypted value";
+			assert(secrets.getProperty("filler.7").equals("value 7")) : "DecryptingProperties changed a plain value";
+			assert(secrets.getProperty("missing", "default").equals("default")) : "DecryptingProperties ignored the default";
+			Properties plainValues = new Properties();
+			plainValues.setProperty("cart.message", "{0} items in cart");
+			plainValues.setProperty("limits.json", " {\"max\": 10, \"unit\": \"s\"}");
+			DecryptingProperties view = new DecryptingProperties(plainValues);
+			assert(view.getProperty("cart.message").equals("{0} items in cart")) : "Message pattern was taken as a secret";
+			assert(view.getProperty("limits.json").equals(" {\"max\": 10, \"unit\": \"s\"}")) : "JSON value was taken as a secret";
+			secrets.getProperty("db.password");
+			secrets.getProperty("last.password");
+			assert(secrets.getDecryptedCount() == 2) : "DecryptingProperties kept more than its bound";
+			java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+			java.io.ObjectOutputStream serialized = new java.io.ObjectOutputStream(bytes);
+			serialized.writeObject(secrets);
+			serialized.close();
+			DecryptingProperties copy = (DecryptingProperties) new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())).readObject();
+			assert(copy.getDecryptedCount() == 0) : "DecryptingProperties serialized decrypted values";
+			assert(copy.getProperty("hsm.pin").equals("1234")) : "Deserialized DecryptingProperties did not de-obfuscate hsm.pin";
+
+			ObfuscateSecretsInProperties.deObfuscateFile(file.getPath(), keys, map, false);
+			props = load(file);
+			assert(props.getProperty("db.password").equals("James jumped")) : "db.password was not de-obfuscated";
+			assert(props.getProperty("caf\u00e9.secret").equals("cafe")) : "Escaped key was not de-obfuscated";
+			assert(props.getProperty("hsm.pin").equals("1234")) : "hsm.pin was not de-obfuscated";
+			assert(props.getProperty("last.password").equals("end")) : "Last line was not de-obfuscated";
+			//Keys selected by pattern
+			KeySelector selector = KeySelector.compile("**.password", "db.*.credentials", "app_*.token", "regex:HSM_.*");
+			assert(selector.matches("password") && selector.matches("mail.password") && selector.matches("a.b.c.password")) : "** did not match any number of segments";
+			assert(selector.matches("db.main.credentials") && !selector.matches("db.credentials") && !selector.matches("db.a.b.credentials")) : "* did not match one segment";
+			assert(selector.matches("app_web.token") && !selector.matches("app.token")) : "* within a segment did not match";
+			assert(selector.matches("HSM_PIN") && !selector.matches("password.hint")) : "Selector matched the wrong keys";
+			selector = KeySelector.compile("regex:(a+)_x", "regex:(\\w+)\\.\\1");
+			assert(selector.matches("aa_x") && selector.matches("pin.pin") && !selector.matches("pin.pan")) : "Back reference of a second regex was not kept";
+			ObfuscateSecretsInProperties.obfuscateFile(file.getPath(), new String[] { "**.password", "regex:hsm\\..*" }, map, false);
+			props = load(file);
+			assert(props.getProperty("db.password").startsWith("{") && props.getProperty("last.password").startsWith("{") && props.getProperty("hsm.pin").startsWith("{")) : "Pattern selected keys were not obfuscated";
+			assert(props.getProperty("caf\u00e9.secret").equals("cafe")) : "Key not selected by a pattern was obfuscated";
+			props = ObfuscateSecretsInProperties.deObfuscateFile(props, new String[] { "**.password" }, map, false);
+			assert(props.getProperty("mail.password").equals("over the quick brown fox")) : "Pattern selected keys were not de-obfuscated";
+
+			//A link, the permissions and an untouched file are kept
+			if (file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+				java.nio.file.Path link = new File(file.getParentFile(), "link-" + file.getName()).toPath();
+				Files.deleteIfExists(link);
+				Files.createSymbolicLink(link, file.toPath());
+				java.util.Set<java.nio.file.attribute.PosixFilePermission> permissions = java.nio.file.attribute.PosixFilePermissions.fromString("rw-r-----");
+				Files.setPosixFilePermissions(file.toPath(), permissions);
+				ObfuscateSecretsInProperties.deObfuscateFile(link.toString(), new String[] { "**.password" }, map, false);
+				assert(Files.isSymbolicLink(link)) : "Link was replaced by a file";
+				assert(load(file).getProperty("db.password").equals("James jumped")) : "File behind the link was not de-obfuscated";
+				assert(Files.getPosixFilePermissions(file.toPath()).equals(permissions)) : "Permissions were not kept " + Files.getPosixFilePermissions(file.toPath());
+				Object inode = Files.readAttributes(file.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey();
+				ObfuscateSecretsInProperties.obfuscateFile(link.toString(), new String[] { "no.such.key" }, map, false);
+				assert(inode == null || inode.equals(Files.readAttributes(file.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey())) : "File without selected keys was replaced";
+				//A re-run that finds every value already done does not replace the file
+				int rewritten = ObfuscateSecretsInProperties.deObfuscateFile(link.toString(), new String[] { "**.password" }, map, false);
+				assert(rewritten == 0) : "Values already plain were counted " + rewritten;
+				assert(inode == null || inode.equals(Files.readAttributes(file.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey())) : "File with values already plain was replaced";
+				rewritten = ObfuscateSecretsInProperties.obfuscateFile(link.toString(), new String[] { "**.password" }, map, false);
+				assert(rewritten == 3) : "Wrong number of values obfuscated " + rewritten;
+				inode = Files.readAttributes(file.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey();
+				rewritten = ObfuscateSecretsInProperties.obfuscateFile(link.toString(), new String[] { "**.password" }, map, false);
+				assert(rewritten == 0) : "Values already obfuscated were counted " + rewritten;
+				assert(inode == null || inode.equals(Files.readAttributes(file.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey())) : "File with values already obfuscated was replaced";
+				Files.delete(link);
+			}
+
+			for (File left : file.getParentFile().listFiles()) {
+				assert(!(left.getName().startsWith(file.getName()) && left.getName().endsWith(".tmp"))) : "Temporary file left behind " + left;
+			}
+			if (logging) System.out.println((FILLER + keys.length) + " properties obfuscated in " + time + "ms");
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static Properties load(File file) throws Exception {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return props;
+	}
+}
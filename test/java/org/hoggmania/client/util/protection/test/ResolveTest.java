@@ -0,0 +1,159 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+import org.hoggmania.client.util.protection.utils.ResolveSecretsInText;
+
+/**
+ * Test of resolving the obfuscated values embedded in text
+ * 
+ * @author james.holland
+ * 
+ */
+public class ResolveTest {
+
+	private static final int REPEAT = 2000;
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			String db = ObfuscateSecretsHelper.obfuscatedSecretAndWrite("James jumped", map);
+			String mail = ObfuscateSecretsHelper.obfuscatedSecretAndWrite("over the fox", map);
+			Map<String, String> plainMap = new java.util.HashMap<String, String>();
+			plainMap.put(ObfuscatorInf.PWB_IMPLEMENTATION, ObfuscatePlain.class.getName());
+			String plain = ObfuscateSecretsHelper.obfuscatedSecretAndWrite("lazy dog", plainMap);
+			String url = PassphraseObfuscatorURL.class.getName();
+			assert(plain.startsWith("{" + ObfuscatePlain.class.getName() + "}")) : "Token without parameters expected " + plain;
+
+			String template = "# env\nDB_PASSWORD=" + db + "\n"
+					+ "mail:\n  password: \"" + mail + "\"\n"
+					+ "server { listen 443; auth " + plain + "; }\n"
+					+ "partial {" + url + " and {" + url + ":not base64 here} and {{" + url + "}\n"
+					+ "unknown {com.example.Other:abc}xyz and " + db + "{" + url + "}\n";
+			String expected = "# env\nDB_PASSWORD=James jumped\n"
+					+ "mail:\n  password: \"over the fox\"\n"
+					+ "server { listen 443; auth lazy dog; }\n"
+					+ "partial {" + url + " and {" + url + ":not base64 here} and {{" + url + "}\n"
+					+ "unknown {com.example.Other:abc}xyz and James jumped{" + url + "}\n";
+
+			ResolveSecretsInText resolver = new ResolveSecretsInText();
+			String resolved = resolver.resolve(template);
+			if (logging) System.out.println(resolved);
+			assert(resolved.equals(expected)) : "Wrong resolved text " + resolved;
+
+			// Tokens and headers split between reads
+			for (int chunk = 1; chunk < 18; chunk++) {
+				StringWriter out = new StringWriter();
+				long count = resolver.resolve(new ChunkedReader(template, chunk), out);
+				assert(count == 4) : "Wrong number of secrets resolved " + count + " reading " + chunk;
+				assert(out.toString().equals(expected)) : "Wrong resolved text reading " + chunk + " characters at a time";
+			}
+
+			// Larger than the buffer, streamed from file to file
+			Path file = Files.createTempFile("template", ".conf");
+			StringBuilder big = new StringBuilder();
+			StringBuilder bigExpected = new StringBuilder();
+			for (int i = 0; i < REPEAT; i++) {
+				big.append(template);
+				bigExpected.append(expected);
+			}
+			Files.write(file, big.toString().getBytes("UTF-8"));
+			long time = System.currentTimeMillis();
+			long count = ResolveSecretsInText.resolveFile(file.toString(), file.toString());
+			if (logging) System.out.println("Resolved " + count + " secrets in " + (System.currentTimeMillis() - time) + "ms");
+			assert(count == 4 * REPEAT) : "Wrong number of secrets resolved in the file " + count;
+			assert(new String(Files.readAllBytes(file), "UTF-8").equals(bigExpected.toString())) : "Wrong resolved file";
+			Files.delete(file);
+
+			// A long secret is written with a CRLF every 76 characters
+			String secret = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+			String longToken = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(secret, map);
+			assert(longToken.contains("\r\n")) : "Long secret was written on one line " + longToken;
+			String crlf = "A=" + longToken + "\r\nB=plain\r\nC=" + longToken;
+			for (int chunk = 1; chunk < 8; chunk++) {
+				StringWriter out = new StringWriter();
+				count = resolver.resolve(new ChunkedReader(crlf, chunk), out);
+				assert(count == 2) : "Wrong number of long secrets resolved " + count + " reading " + chunk;
+				assert(out.toString().equals("A=" + secret + "\r\nB=plain\r\nC=" + secret)) : "Wrong resolved long secret reading " + chunk + " characters at a time " + out;
+			}
+
+			// A value line of 76 characters that ends in padding is the end of the token
+			String padded = "0123456789abcdef0123456789abcdef0123456789abcdef01";
+			String paddedToken = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(padded, map);
+			String paddedValue = paddedToken.substring(paddedToken.indexOf('}') + 1);
+			assert(paddedValue.length() == 76 && paddedValue.endsWith("=")) : "Secret not written as one padded line " + paddedToken;
+			String env = "A=" + paddedToken + "\r\nUSER=admin\r\n";
+			for (int chunk = 1; chunk < 8; chunk++) {
+				StringWriter out = new StringWriter();
+				count = resolver.resolve(new ChunkedReader(env, chunk), out);
+				assert(count == 1) : "Wrong number of padded secrets resolved " + count + " reading " + chunk;
+				assert(out.toString().equals("A=" + padded + "\r\nUSER=admin\r\n")) : "Wrong resolved padded secret reading " + chunk + " characters at a time " + out;
+			}
+
+			// Only the codes given are resolved
+			assert(new ResolveSecretsInText(java.util.Collections.singleton(url)).resolve(plain).equals(plain)) : "Code not given was resolved";
+
+			String corrupt = db.substring(0, db.indexOf('}') + 1) + "AAAA";
+			try {
+				resolver.resolve("x=" + corrupt);
+				assert(false) : "Corrupt secret was resolved";
+			} catch (Exception e) {
+				if (logging) System.out.println(e.getMessage());
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the text a few characters per read
+	 */
+	private static final class ChunkedReader extends Reader {
+		private final StringReader	in;
+		private final int			chunk;
+
+		ChunkedReader(String text, int chunk) {
+			this.in = new StringReader(text);
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			return in.read(cbuf, off, Math.min(len, chunk));
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.EnvEntropySource;
+import org.hoggmania.client.util.protection.utils.FileEntropySource;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+import org.hoggmania.client.util.protection.utils.UrlEntropySource;
+
+/**
+ * Test of obfuscating with entropy from configured sources
+ * 
+ * @author james.holland
+ * 
+ */
+public class SourcesTest {
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			String plain = "James jumped over the quick brown fox";
+			String encryptedPropValue;
+			Map<String, String> map;
+
+			// PassphraseObfuscatorSources reads a file through one shared snapshot
+			File entropyFile = File.createTempFile("sources", ".entropy");
+			Files.write(entropyFile.toPath(), "0123456789abcdef\r\nfedcba9876543210\n".getBytes());
+			map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorSources.class.getName());
+			map.put(EntropySources.PWB_ENTROPY_SOURCES, "file");
+			map.put(FileEntropySource.PWB_ENTROPY_FILE, entropyFile.getPath());
+			encryptedPropValue = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+			if (logging) System.out.println("Text from EncryptedInfo is =" + encryptedPropValue);	
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(encryptedPropValue).equals(plain)) : "PassphraseObfuscatorSources does not return correct de-obfusacted value for encode version";
+			assert(EntropySources.getEntropy("file", map, null) == EntropySources.getEntropy("file", map, null)) : "EntropySources did not share the snapshot";
+
+			// The file source gives the entropy PassphraseObfuscatorURL reads
+			map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			map.put(ObfuscatorInf.PWB_URL, entropyFile.getPath());
+			String urlValue = ObfuscateSecretsHelper.obfuscatedSecretAndWrite(plain, map);
+			assert(urlValue.substring(urlValue.indexOf('}')).equals(encryptedPropValue.substring(encryptedPropValue.indexOf('}')))) : "file EntropySource differs from PassphraseObfuscatorURL";
+
+			// A source without its parameters reports the missing parameter
+			EntropySource[] sources = { new FileEntropySource(), new UrlEntropySource(), new EnvEntropySource() };
+			for (EntropySource source : sources) {
+				try {
+					source.getEntropy(null, new ArrayList<File>());
+					assert(false) : source.getName() + " EntropySource read without parameters";
+				} catch (RuntimeException e) {
+					assert(e.getMessage().equals("REQUIRES_MISSING_PARAMETER=" + source.getParameterNames().iterator().next())) : source.getName() + " EntropySource did not report the missing parameter " + e;
+				}
+			}
+
+			Files.delete(entropyFile.toPath());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
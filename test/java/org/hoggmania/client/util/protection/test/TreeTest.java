@@ -0,0 +1,135 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsInTree;
+
+/**
+ * Test of obfuscating the files of a directory tree in one run
+ * 
+ * @author james.holland
+ * 
+ */
+public class TreeTest {
+
+	private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Server><Resource name=\"db\" password=\"James jumped\"/></Server>";
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			Path root = Files.createTempDirectory("tree");
+			write(root.resolve("a.properties"), "db.password=secret a\nuser=app\n");
+			write(root.resolve("sub/b.properties"), "mail.password=secret b\n");
+			write(root.resolve("conf/server.xml"), XML);
+			write(root.resolve("target/c.properties"), "db.password=secret c\n");
+			write(root.resolve("notes.txt"), "db.password=secret d\n");
+
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+			ObfuscateSecretsInTree tree = new ObfuscateSecretsInTree(root, true);
+			tree.setPropertyKeys(new String[] { "**.password" });
+			tree.setXPath("//Resource", "password");
+			tree.setMap(map);
+			tree.setExcludes("target");
+			tree.setThreads(4);
+			ObfuscateSecretsInTree.Summary summary = tree.run();
+			if (logging) System.out.println(summary);
+
+			assert(summary.getFiles() == 3 && summary.getProcessed() == 3 && summary.getFailed() == 0) : "Wrong files processed " + summary;
+			assert(summary.getValues() == 3) : "Wrong number of values obfuscated " + summary;
+			assert(load(root.resolve("a.properties")).getProperty("db.password").startsWith("{")) : "a.properties was not obfuscated";
+			assert(load(root.resolve("a.properties")).getProperty("user").equals("app")) : "Unselected key was obfuscated";
+			assert(load(root.resolve("target/c.properties")).getProperty("db.password").equals("secret c")) : "Excluded directory was processed";
+			String xml = new String(Files.readAllBytes(root.resolve("conf/server.xml")), "UTF-8");
+			assert(!xml.contains("James jumped")) : "server.xml was not obfuscated";
+
+			tree = new ObfuscateSecretsInTree(root, false);
+			tree.setPropertyKeys(new String[] { "**.password" });
+			tree.setXPath("//Resource", "password");
+			tree.setExcludes("target");
+			summary = tree.run();
+			assert(summary.getValues() == 3 && summary.getFailed() == 0) : "Wrong number of values de-obfuscated " + summary;
+			assert(load(root.resolve("sub/b.properties")).getProperty("mail.password").equals("secret b")) : "b.properties was not de-obfuscated";
+			xml = new String(Files.readAllBytes(root.resolve("conf/server.xml")), "UTF-8");
+			assert(xml.contains("password=\"James jumped\"")) : "server.xml was not de-obfuscated";
+
+			// Incremental runs only parse the files changed since the last run
+			Path manifest = root.resolve("manifest/tree.manifest");
+			tree = incremental(root, map, manifest);
+			summary = tree.run();
+			assert(summary.getProcessed() == 3 && summary.getUnchanged() == 0) : "First incremental run skipped files " + summary;
+			summary = incremental(root, map, manifest).run();
+			if (logging) System.out.println(summary);
+			assert(summary.getProcessed() == 0 && summary.getUnchanged() == 3 && summary.getValues() == 0) : "Unchanged files were processed " + summary;
+
+			write(root.resolve("sub/b.properties"), "mail.password=secret b\nftp.password=secret e\n");
+			Path a = root.resolve("a.properties");
+			Files.setLastModifiedTime(a, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 5000));
+			summary = incremental(root, map, manifest).run();
+			if (logging) System.out.println(summary);
+			assert(summary.getProcessed() == 1 && summary.getUnchanged() == 2) : "Changed file was not processed " + summary;
+			assert(load(root.resolve("sub/b.properties")).getProperty("ftp.password").startsWith("{")) : "Changed file was not obfuscated";
+
+			ObfuscateSecretsInTree other = incremental(root, map, manifest);
+			other.setPropertyKeys(new String[] { "**.password", "user" });
+			summary = other.run();
+			assert(summary.getProcessed() == 3 && summary.getUnchanged() == 0) : "Manifest of other options was used " + summary;
+			assert(load(a).getProperty("user").startsWith("{")) : "New key was not obfuscated";
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static ObfuscateSecretsInTree incremental(Path root, Map<String, String> map, Path manifest) {
+		ObfuscateSecretsInTree tree = new ObfuscateSecretsInTree(root, true);
+		tree.setPropertyKeys(new String[] { "**.password" });
+		tree.setXPath("//Resource", "password");
+		tree.setMap(map);
+		tree.setExcludes("target,manifest");
+		tree.setManifest(manifest);
+		return tree;
+	}
+
+	private static void write(Path file, String content) throws Exception {
+		Files.createDirectories(file.getParent());
+		Files.write(file, content.getBytes("UTF-8"));
+	}
+
+	private static Properties load(Path file) throws Exception {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(new File(file.toString()));
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return props;
+	}
+}
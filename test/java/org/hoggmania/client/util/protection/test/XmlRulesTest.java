@@ -0,0 +1,174 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathFactory;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretInXML;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretsHelper;
+import org.hoggmania.client.util.protection.utils.XmlRules;
+import org.w3c.dom.Document;
+
+/**
+ * Test of applying several XML rules in one pass
+ * 
+ * @author james.holland
+ * 
+ */
+public class XmlRulesTest {
+
+	private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<Server>\n"
+			+ "  <Resource name=\"db\" type=\"javax.sql.DataSource\" password=\"James jumped\"/>\n"
+			+ "  <Resource name=\"mail\" type=\"javax.mail.Session\" password=\"over the fox\"/>\n"
+			+ "  <Service><Connector port=\"8443\" keystorePass=\"quick brown\"/><Secret>lazy dog</Secret></Service>\n"
+			+ "  <Other>plain</Other>\n"
+			+ "</Server>\n";
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			Path rulesFile = Files.createTempFile("rules", ".txt");
+			String rulesText = "# Data sources\n"
+					+ "//Resource[@type = 'javax.sql.DataSource'] password\n"
+					+ "\n"
+					+ "/Server/Service/Connector/@keystorePass\n"
+					+ "//Secret\n";
+			Files.write(rulesFile, rulesText.getBytes("UTF-8"));
+			XmlRules rules = XmlRules.load(rulesFile.toString());
+			if (logging) System.out.println(rules);
+			assert(rules.size() == 3) : "Wrong number of rules " + rules.size();
+			assert(rules.getAttributeName(1).equals("keystorePass")) : "Attribute of the expression was not used";
+			assert(!rules.isStreamable()) : "Spaces in the predicate are outside the streaming subset";
+
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+
+			// DOM, the rules of the subset in one walk and the other by XPath
+			Path file = Files.createTempFile("server", ".xml");
+			Files.write(file, XML.getBytes("UTF-8"));
+			int count = ObfuscateSecretInXML.processFile(file.toString(), rules, map, true);
+			assert(count == 3) : "Wrong number of values obfuscated " + count;
+			Document doc = load(file);
+			assert(value(doc, "//Resource[@name='db']/@password").startsWith("{")) : "Data source password was not obfuscated";
+			assert(value(doc, "//Resource[@name='mail']/@password").equals("over the fox")) : "Other resource was obfuscated";
+			assert(value(doc, "//Connector/@keystorePass").startsWith("{")) : "Keystore password was not obfuscated";
+			assert(value(doc, "//Secret").startsWith("{")) : "Secret was not obfuscated";
+			assert(value(doc, "//Other").equals("plain")) : "Other text was obfuscated";
+			count = ObfuscateSecretInXML.processFile(file.toString(), rules, map, false);
+			assert(count == 3) : "Wrong number of values de-obfuscated " + count;
+			doc = load(file);
+			assert(value(doc, "//Resource[@name='db']/@password").equals("James jumped")) : "Data source password was not de-obfuscated";
+			assert(value(doc, "//Secret").equals("lazy dog")) : "Secret was not de-obfuscated";
+
+			// Streaming, every rule in the one pass
+			XmlRules streamable = new XmlRules();
+			streamable.addLine("//Resource[@type='javax.sql.DataSource'] password");
+			streamable.addLine("/Server/Service/Connector/@keystorePass");
+			streamable.addLine("//Secret");
+			assert(streamable.isStreamable()) : "Rules are within the streaming subset";
+			count = ObfuscateSecretInXML.streamFile(file.toString(), streamable, map, true);
+			assert(count == 3) : "Wrong number of values streamed " + count;
+			count = ObfuscateSecretInXML.processFile(file.toString(), rules, map, false);
+			assert(count == 3) : "DOM mode did not de-obfuscate the streamed output " + count;
+			doc = load(file);
+			assert(value(doc, "//Connector/@keystorePass").equals("quick brown")) : "Keystore password was not de-obfuscated";
+			try {
+				ObfuscateSecretInXML.streamFile(file.toString(), rules, map, true);
+				assert(false) : "Rules outside the streaming subset were streamed";
+			} catch (IllegalArgumentException e) {
+				if (logging) System.out.println(e.getMessage());
+			}
+
+			// The DOM walk selects the same values as XPath, != needs the attribute
+			String untyped = XML.replace("<Other>plain</Other>", "<Resource name=\"jms\" password=\"lazy fox\"/>");
+			for (String rule : new String[] { "//Resource[@type!='javax.sql.DataSource'] password", "//Resource[@type != 'javax.sql.DataSource'] password" }) {
+				XmlRules one = new XmlRules();
+				one.addLine(rule);
+				Files.write(file, untyped.getBytes("UTF-8"));
+				count = ObfuscateSecretInXML.processFile(file.toString(), one, map, true);
+				doc = load(file);
+				assert(count == 1 && value(doc, "//Resource[@name='mail']/@password").startsWith("{")) : rule + " did not select the other type " + count;
+				assert(value(doc, "//Resource[@name='jms']/@password").equals("lazy fox")) : rule + " selected an element without the attribute";
+			}
+
+			// A value matched by several rules is changed once
+			XmlRules overlapping = new XmlRules();
+			overlapping.addLine("//Resource password");
+			overlapping.addLine("//Resource[@name='db'] password");
+			overlapping.addLine("//Resource[@name = 'db'] password");
+			overlapping.addLine("//Secret");
+			overlapping.addLine("/Server/Service/Secret");
+			Files.write(file, XML.getBytes("UTF-8"));
+			count = ObfuscateSecretInXML.processFile(file.toString(), overlapping, map, true);
+			assert(count == 3) : "Values matched by several rules were counted again " + count;
+			doc = load(file);
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(value(doc, "//Resource[@name='db']/@password")).equals("James jumped")) : "Value matched by several rules was obfuscated again";
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(value(doc, "//Secret")).equals("lazy dog")) : "Text matched by several rules was obfuscated again";
+			overlapping = new XmlRules();
+			overlapping.addLine("//Resource password");
+			overlapping.addLine("//Resource[@name='db'] password");
+			overlapping.addLine("//Secret");
+			overlapping.addLine("/Server/Service/Secret");
+			Files.write(file, XML.getBytes("UTF-8"));
+			count = ObfuscateSecretInXML.streamFile(file.toString(), overlapping, map, true);
+			assert(count == 3) : "Streamed values matched by several rules were counted again " + count;
+			doc = load(file);
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(value(doc, "//Resource[@name='db']/@password")).equals("James jumped")) : "Streamed value matched by several rules was obfuscated again";
+			assert(ObfuscateSecretsHelper.parseObfuscatedSecretAndDecrypt(value(doc, "//Secret")).equals("lazy dog")) : "Streamed text matched by several rules was obfuscated again";
+			Files.delete(file);
+
+			// DOM, the DOCTYPE is kept and a file without matches is not rewritten
+			Path dtd = file.resolveSibling("xml-rules-server.dtd");
+			Files.write(dtd, "<!ELEMENT Server ANY><!ELEMENT Resource EMPTY><!ATTLIST Resource name CDATA #IMPLIED password CDATA #IMPLIED>".getBytes("UTF-8"));
+			String typed = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE Server SYSTEM \"xml-rules-server.dtd\">\n<Server><Resource   name=\"db\"  password=\"James jumped\"/></Server>\n";
+			Files.write(file, typed.getBytes("UTF-8"));
+			count = ObfuscateSecretInXML.processFile(file.toString(), "//Missing", "password", map, true);
+			assert(count == 0 && new String(Files.readAllBytes(file), "UTF-8").equals(typed)) : "File without matches was rewritten";
+			count = ObfuscateSecretInXML.processFile(file.toString(), "//Resource", "password", map, true);
+			assert(count == 1) : "Wrong number of values obfuscated " + count;
+			assert(new String(Files.readAllBytes(file), "UTF-8").contains("xml-rules-server.dtd")) : "DOCTYPE was lost";
+			for (Path left : Files.newDirectoryStream(file.getParent(), file.getFileName() + "*.tmp")) {
+				assert(false) : "Temporary file left behind " + left;
+			}
+			Files.delete(file);
+			Files.delete(dtd);
+			Files.delete(rulesFile);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static Document load(Path file) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(file.toFile());
+	}
+
+	private static String value(Document doc, String expression) throws Exception {
+		return XPathFactory.newInstance().newXPath().evaluate(expression, doc);
+	}
+}
@@ -0,0 +1,153 @@
+/*
+*******************************************************************************
+*   Environment Configuration Obfuscation
+*   (c) 2018 James Holland
+*
+*  Licensed under the Apache License, Version 2.0 (the "License");
+*  you may not use this file except in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+*  Unless required by applicable law or agreed to in writing, software
+*  distributed under the License is distributed on an "AS IS" BASIS,
+*  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+*  See the License for the specific language governing permissions and
+*  limitations under the License.
+*******************************************************************************
+*/
+package org.hoggmania.client.util.protection.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.hoggmania.client.util.protection.*;
+import org.hoggmania.client.util.protection.utils.ObfuscateSecretInXML;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Test of obfuscating an XML file by streaming it through StAX
+ * 
+ * @author james.holland
+ * 
+ */
+public class XmlStreamTest {
+
+	private static final int FILLER = 50000;
+
+	public static void main(String[] args) {
+		try {
+			boolean logging = true;
+			Path file = Files.createTempFile("server", ".xml");
+			StringBuilder xml = new StringBuilder();
+			xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			xml.append("<!-- Comment kept -->\n");
+			xml.append("<Server port=\"8005\">\n");
+			xml.append("  <GlobalNamingResources>\n");
+			xml.append("    <Resource name=\"db\" type=\"javax.sql.DataSource\" password=\"James jumped\"/>\n");
+			xml.append("    <Resource name=\"mail\" type=\"javax.mail.Session\" password=\"over the fox\"/>\n");
+			xml.append("  </GlobalNamingResources>\n");
+			xml.append("  <Service><Secret>quick <![CDATA[brown]]> fox</Secret><Other>plain &amp; simple</Other></Service>\n");
+			for (int i = 0; i < FILLER; i++) {
+				xml.append("  <Filler id=\"").append(i).append("\">value ").append(i).append("</Filler>\n");
+			}
+			xml.append("</Server>\n");
+			Files.write(file, xml.toString().getBytes("UTF-8"));
+
+			Map<String, String> map = new java.util.HashMap<String, String>();
+			map.put(ObfuscatorInf.PWB_IMPLEMENTATION, PassphraseObfuscatorURL.class.getName());
+
+			long time = System.currentTimeMillis();
+			int count = ObfuscateSecretInXML.streamFile(file.toString(), "//Resource[@type='javax.sql.DataSource']", "password", map, true);
+			if (logging) System.out.println("Streamed " + count + " attributes in " + (System.currentTimeMillis() - time) + "ms");
+			assert(count == 1) : "Wrong number of attributes obfuscated " + count;
+			Document doc = load(file);
+			assert(value(doc, "//Resource[@name='db']/@password").startsWith("{")) : "Matched attribute was not obfuscated";
+			assert(value(doc, "//Resource[@name='mail']/@password").equals("over the fox")) : "Predicate did not exclude an element";
+			assert(value(doc, "//Other").equals("plain & simple")) : "Other text was changed";
+			assert(((NodeList) XPathFactory.newInstance().newXPath().evaluate("//Filler", doc, XPathConstants.NODESET)).getLength() == FILLER) : "Elements were lost";
+			assert(new String(Files.readAllBytes(file), "UTF-8").contains("<!-- Comment kept -->")) : "Comment was lost";
+
+			count = ObfuscateSecretInXML.streamFile(file.toString(), "/Server/Service/Secret", null, map, true);
+			assert(count == 1) : "Wrong number of elements obfuscated " + count;
+			doc = load(file);
+			assert(value(doc, "//Secret").startsWith("{")) : "Element text was not obfuscated";
+
+			// The attribute may be given by the expression
+			count = ObfuscateSecretInXML.streamFile(file.toString(), "//Resource[@name='db']/@password", null, map, false);
+			assert(count == 1) : "Wrong number of attributes de-obfuscated " + count;
+			count = ObfuscateSecretInXML.streamFile(file.toString(), "//Service//Secret", null, map, false);
+			assert(count == 1) : "Wrong number of elements de-obfuscated " + count;
+			doc = load(file);
+			assert(value(doc, "//Resource[@name='db']/@password").equals("James jumped")) : "Attribute was not de-obfuscated";
+			assert(value(doc, "//Secret").equals("quick brown fox")) : "Element text was not de-obfuscated";
+
+			// The DOM mode reads the streamed output
+			count = ObfuscateSecretInXML.streamFile(file.toString(), "//Resource", "password", map, true);
+			assert(count == 2) : "Wrong number of attributes obfuscated " + count;
+			count = ObfuscateSecretInXML.processFile(file.toString(), "//Resource", "password", map, false);
+			assert(count == 2) : "DOM mode did not de-obfuscate the streamed output " + count;
+			assert(value(load(file), "//Resource[@name='mail']/@password").equals("over the fox")) : "Attribute was not de-obfuscated by the DOM mode";
+
+			try {
+				ObfuscateSecretInXML.streamFile(file.toString(), "//Resource[1]", "password", map, true);
+				assert(false) : "Positional predicate was accepted";
+			} catch (IllegalArgumentException e) {
+				if (logging) System.out.println(e.getMessage());
+			}
+			Files.delete(file);
+
+			// The DTD and entity references are written as read, external entities are not loaded
+			Path outside = Files.createTempFile("outside", ".txt");
+			Files.write(outside, "outside content".getBytes("UTF-8"));
+			String typed = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<!DOCTYPE Server [<!ENTITY owner \"James\"><!ENTITY ext SYSTEM \"" + outside.toUri() + "\">]>\n"
+					+ "<Server><Note>&owner; &ext;</Note><Resource name=\"db\" password=\"James jumped\"/></Server>\n";
+			Files.write(file, typed.getBytes("UTF-8"));
+			count = ObfuscateSecretInXML.streamFile(file.toString(), "//Resource", "password", map, true);
+			assert(count == 1) : "Wrong number of attributes obfuscated " + count;
+			String written = new String(Files.readAllBytes(file), "UTF-8");
+			assert(written.contains("<!ENTITY owner \"James\">")) : "DTD was not kept " + written;
+			assert(written.contains("<Note>&owner; &ext;</Note>")) : "Entity references were expanded " + written;
+			assert(!written.contains("outside content")) : "External entity was loaded";
+			Files.delete(file);
+			Files.delete(outside);
+
+			// A file without matches is not rewritten, a link is kept
+			String untouched = "<?xml version='1.0' encoding='UTF-8'?>\n<Server><Resource name='db'/></Server>\n";
+			Files.write(file, untouched.getBytes("UTF-8"));
+			count = ObfuscateSecretInXML.streamFile(file.toString(), "//Missing", "password", map, true);
+			assert(count == 0 && new String(Files.readAllBytes(file), "UTF-8").equals(untouched)) : "File without matches was rewritten";
+			if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+				Path link = file.resolveSibling("link-" + file.getFileName());
+				Files.createSymbolicLink(link, file);
+				Files.write(file, "<Server><Resource name=\"db\" password=\"James jumped\"/></Server>".getBytes("UTF-8"));
+				count = ObfuscateSecretInXML.streamFile(link.toString(), "//Resource", "password", map, true);
+				assert(count == 1 && Files.isSymbolicLink(link)) : "Link was replaced by a file";
+				assert(value(load(file), "//Resource/@password").startsWith("{")) : "File behind the link was not obfuscated";
+				Files.delete(link);
+			}
+			Files.delete(file);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static Document load(Path file) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(file.toFile());
+	}
+
+	private static String value(Document doc, String expression) throws Exception {
+		return XPathFactory.newInstance().newXPath().evaluate(expression, doc);
+	}
+}